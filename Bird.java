@@ -1,4 +1,4 @@
-import java.util.Vector;
+import java.util.Arrays;
 
 /**
  * Represents a bird with history of movements
@@ -6,22 +6,41 @@ import java.util.Vector;
 class Bird {
     // /length of the sequence of past actions of the duck
     public int getSeqLength() {
-        return mSeq.size();
+        return mLength;
+    }
+
+    // /length of the sequence before the bird died, the whole sequence if it is alive
+    public int getAliveLength() {
+        return mAliveLength;
     }
 
     // /returns the last action of the bird
     public int getLastObservation() {
-        return getObservation(mSeq.size() - 1);
+        return getObservation(mLength - 1);
     }
 
     // /returns one action in the sequence of actions of the bird
     public int getObservation(int i) {
-        return mSeq.get(i);
+        if (i < 0 || i >= mLength)
+            throw new ArrayIndexOutOfBoundsException(i);
+        return mSeq[i];
+    }
+
+    // /copies the actions from (inclusive) to to (exclusive) into the start of pDst
+    public void copyObservations(int[] pDst, int pFrom, int pTo) {
+        if (pFrom < 0 || pTo > mLength || pFrom > pTo)
+            throw new ArrayIndexOutOfBoundsException("[" + pFrom + ", " + pTo + ") of " + mLength);
+        System.arraycopy(mSeq, pFrom, pDst, 0, pTo - pFrom);
+    }
+
+    // /a view of the actions from pFrom up to the bird's death, sharing the bird's storage
+    public SequenceView view(int pFrom) {
+        return new SequenceView(mSeq, pFrom, mAliveLength - pFrom);
     }
 
     // /returns true if the bird is dead
     public boolean isDead() {
-        return getLastObservation() == Constants.MOVE_DEAD;
+        return mLength > 0 && mSeq[mLength - 1] == Constants.MOVE_DEAD;
     }
 
     // /returns true if the duck was dead at time step i
@@ -44,15 +63,25 @@ class Bird {
      * them yourself!
      */
     public void addObservation(int pMovement) {
-        if (!mSeq.isEmpty() && mSeq.lastElement() == Constants.MOVE_DEAD)
-            mSeq.add(Constants.MOVE_DEAD);
-        else
-            mSeq.add(pMovement);
+        if (mLength == mSeq.length)
+            mSeq = Arrays.copyOf(mSeq, 2 * mSeq.length);
+
+        if (isDead())
+            pMovement = Constants.MOVE_DEAD;
+        mSeq[mLength++] = pMovement;
+        if (pMovement != Constants.MOVE_DEAD)
+            mAliveLength = mLength;
     }
 
     public void kill() {
-        mSeq.set(mSeq.size() - 1, Constants.MOVE_DEAD);
+        mSeq[mLength - 1] = Constants.MOVE_DEAD;
+        mAliveLength = Math.min(mAliveLength, mLength - 1);
     }
 
-    private Vector<Integer> mSeq = new Vector<Integer>();
+    // A round has at most 100 turns, so this normally never grows
+    private static final int INITIAL_CAPACITY = 100;
+
+    private int[] mSeq = new int[INITIAL_CAPACITY];
+    private int mLength;
+    private int mAliveLength;
 }
@@ -0,0 +1,281 @@
+import java.lang.invoke.VarHandle;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The model of one bird over a round.
+ *
+ * Training is done a slice of Baum-Welch iterations at a time, so the caller
+ * can stop between slices when it runs out of time and still predict from
+ * whatever the model has learned so far.
+ *
+ * Training may happen on a background thread while the bird is read on
+ * another, so only the thread that holds the model (see tryAcquire) trains
+ * it, and every slice publishes a snapshot of the parameters. Predictions
+ * and isTrained only ever look at the latest snapshot.
+ *
+ * A warm model only moves a little every turn, so it can get stuck in the
+ * local optimum it found first. Every RESTART_TURNS turns a model trained
+ * from scratch on the same sequence challenges it, and takes its place if
+ * it explains the sequence better.
+ *
+ * Training does not allocate: there are two snapshots, and every slice
+ * writes the one that is not the latest and then publishes it. A reader
+ * that is still on a snapshot when it is written again sees its version
+ * change and reads the latest one instead. Predictions do not allocate
+ * either, they are made in a filter and an array of the caller's.
+ */
+class BirdModel {
+    // Steps at the end of the sequence over which the flight mode is judged
+    private static final int MODE_WINDOW = 10;
+    // Turns between the challenges of a warm model, see above
+    private static final int RESTART_TURNS = 5;
+
+    // /index of the bird in the round
+    final int bird;
+    private FlatHMM hmm;
+    // Trained from scratch while it challenges hmm, otherwise unused
+    private FlatHMM challenger;
+    private int challengerIterationsLeft;
+    // Initial parameters of challengers, only used by the thread that holds the model
+    private final Random restarts;
+    // Held by the thread training the model
+    private final AtomicBoolean busy = new AtomicBoolean();
+    // What the model had learned after the latest slice, null before the first
+    private volatile Snapshot latest;
+    // Written in turns by the thread that holds the model
+    private final Snapshot[] snapshots = new Snapshot[2];
+    private int next;
+    // Moves that came in while the model was busy, to be trained on next
+    private volatile SequenceView pending;
+
+    // The sequence of the current turn and how many iterations it may still use
+    private SequenceView sequence;
+    private int iterationsLeft;
+    // Converged at least once, so later turns continue from these parameters
+    private boolean warm;
+    // Turns begun since the model got warm
+    private int warmTurns;
+
+    // /probability of the most probable next move at the last prediction
+    double priority;
+
+    /**
+     * The initial parameters are drawn from random here rather than in the
+     * training threads, so a seeded player starts every bird the same way.
+     */
+    public BirdModel(int bird, int states, int emissions, double priority, Random random) {
+        this.bird = bird;
+        this.priority = priority;
+        hmm = new FlatHMM(states, emissions, random);
+        challenger = hmm.copy();
+        restarts = new Random(random.nextLong());
+        for (int i = 0; i < snapshots.length; i++)
+            snapshots[i] = new Snapshot(hmm.copy());
+    }
+
+    // /a copy of the parameters after the latest slice, null if untrained
+    public FlatHMM copyHMM() {
+        while (true) {
+            Snapshot snapshot = latest;
+            if (snapshot == null)
+                return null;
+            int version = snapshot.version;
+            if ((version & 1) == 0) {
+                FlatHMM copy = snapshot.hmm.copy();
+                VarHandle.acquireFence();
+                if (snapshot.version == version)
+                    return copy;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    // /true once the model has been trained on at least one slice
+    public boolean isTrained() {
+        return latest != null;
+    }
+
+    /**
+     * Takes the model for training, false if another thread already has it.
+     * begin and train may only be called between a successful tryAcquire
+     * and the matching release.
+     */
+    public boolean tryAcquire() {
+        return busy.compareAndSet(false, true);
+    }
+
+    public void release() {
+        busy.set(false);
+    }
+
+    // /leaves a newer sequence for whoever holds the model, or acquires it next
+    public void offer(SequenceView sequence) {
+        pending = sequence;
+    }
+
+    /**
+     * Starts a new turn on the sequence left by offer, false if there is
+     * none. Only for the thread that holds the model.
+     */
+    public boolean beginPending() {
+        SequenceView sequence = pending;
+        if (sequence == null)
+            return false;
+        pending = null;
+        begin(sequence);
+        return true;
+    }
+
+    public boolean hasPending() {
+        return pending != null;
+    }
+
+    /**
+     * Starts a new turn of training on the bird's sequence so far. A cold
+     * model gets Player.ITERATIONS iterations, a warm one stops as soon as it
+     * has converged on the longer sequence. Every RESTART_TURNS warm turns a
+     * challenger starts as well, and gets Player.ITERATIONS iterations over
+     * this turn and the next ones.
+     */
+    public void begin(SequenceView sequence) {
+        this.sequence = sequence;
+        iterationsLeft = Player.ITERATIONS;
+        if (warm && challengerIterationsLeft == 0 && ++warmTurns % RESTART_TURNS == 0) {
+            challenger.randomize(restarts);
+            challengerIterationsLeft = Player.ITERATIONS;
+        }
+    }
+
+    public boolean needsTraining() {
+        return sequence != null && (iterationsLeft > 0 || challengerIterationsLeft > 0);
+    }
+
+    /**
+     * Runs at most slice more iterations of Baum-Welch for this turn, on the
+     * model first and then on its challenger, if any.
+     */
+    public void train(int slice, HMMWorkspace workspace) {
+        if (iterationsLeft == 0) {
+            challenge(slice, workspace);
+            return;
+        }
+        int iterations = Math.min(slice, iterationsLeft);
+        if (warm) {
+            int done = hmm.baumWelch(iterations, sequence, workspace, Player.CONVERGENCE_THRESHOLD);
+            iterationsLeft = done < iterations ? 0 : iterationsLeft - iterations;
+        } else {
+            hmm.baumWelch(iterations, sequence, workspace);
+            iterationsLeft -= iterations;
+            warm = iterationsLeft == 0;
+        }
+        publish();
+    }
+
+    // /trains the challenger, which replaces the model once trained if it fits the sequence better
+    private void challenge(int slice, HMMWorkspace workspace) {
+        int iterations = Math.min(slice, challengerIterationsLeft);
+        challenger.baumWelch(iterations, sequence, workspace);
+        challengerIterationsLeft -= iterations;
+        // Both were last trained on this turn's sequence
+        if (challengerIterationsLeft == 0 && challenger.getLogLikelihood() > hmm.getLogLikelihood()) {
+            FlatHMM beaten = hmm;
+            hmm = challenger;
+            challenger = beaten;
+            publish();
+        }
+    }
+
+    // /writes the snapshot that is not the latest and makes it the latest
+    private void publish() {
+        Snapshot snapshot = snapshots[next];
+        next ^= 1;
+        snapshot.version++;
+        VarHandle.storeStoreFence();
+        snapshot.hmm.copyFrom(hmm);
+        snapshot.length = sequence.length;
+        snapshot.modeStability = modeStability();
+        snapshot.version++;
+        latest = snapshot;
+    }
+
+    /**
+     * How settled the bird is in its current flight mode, between zero and
+     * one, as of the latest snapshot: the mean posterior, over the last
+     * MODE_WINDOW steps, of the state it most probably is in at the last
+     * one. Zero if the model is untrained.
+     */
+    public double getModeStability() {
+        while (true) {
+            Snapshot snapshot = latest;
+            if (snapshot == null)
+                return 0;
+            int version = snapshot.version;
+            if ((version & 1) == 0) {
+                double modeStability = snapshot.modeStability;
+                VarHandle.acquireFence();
+                if (snapshot.version == version)
+                    return modeStability;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    // /getModeStability from the posteriors the last update left in the model
+    private double modeStability() {
+        int length = hmm.getPosteriorLength();
+        if (length == 0)
+            return 0;
+        int current = 0;
+        for (int i = 1; i < hmm.getNumStates(); i++) {
+            if (hmm.getPosterior(length - 1, i) > hmm.getPosterior(length - 1, current))
+                current = i;
+        }
+        int from = Math.max(0, length - MODE_WINDOW);
+        double sum = 0;
+        for (int t = from; t < length; t++) {
+            sum += hmm.getPosterior(t, current);
+        }
+        return sum / (length - from);
+    }
+
+    /**
+     * Emission probabilities of the bird's next move under the latest
+     * snapshot, after catching up with any observations it has not been
+     * trained on, computed in filter and written to nextProbs, which is
+     * returned. filter must be for as many states as the model, and is only
+     * used by one thread at a time. The model must be trained.
+     */
+    public double[] predictNextEmissions(Bird bird, ForwardFilter filter, double[] nextProbs) {
+        while (true) {
+            Snapshot snapshot = latest;
+            int version = snapshot.version;
+            if ((version & 1) == 0) {
+                filter.resume(snapshot.hmm, snapshot.hmm.getFinalStateProbs(), snapshot.hmm.getLogLikelihood(),
+                        snapshot.length);
+                filter.advance(bird);
+                filter.predictNextEmissions(nextProbs);
+                VarHandle.acquireFence();
+                if (snapshot.version == version)
+                    return nextProbs;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * The model after a slice of training on the first length observations.
+     * Only to be read while version is even, and the same before and after.
+     */
+    private static class Snapshot {
+        final FlatHMM hmm;
+        int length;
+        double modeStability;
+        // Odd while the snapshot is being written
+        volatile int version;
+
+        Snapshot(FlatHMM hmm) {
+            this.hmm = hmm;
+        }
+    }
+}
@@ -1,6 +1,6 @@
-import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.util.StringTokenizer;
 
 /**
  * Encapsulates client functionality (except agent intelligence)
@@ -11,11 +11,22 @@ class Client {
      *
      * The client is connected to the server through streams
      */
-    public Client(Player pPlayer, BufferedReader pInputStream,
-            PrintStream pOutputStream) {
+    public Client(Player pPlayer, InputStream pInputStream,
+            OutputStream pOutputStream) {
+        this(pPlayer, pInputStream, pOutputStream, System.err, false);
+    }
+
+    /**
+     * As above, with the scores and the end of the game written to pLog if
+     * pVerbose is set
+     */
+    public Client(Player pPlayer, InputStream pInputStream,
+            OutputStream pOutputStream, PrintStream pLog, boolean pVerbose) {
+        mLog = pLog;
+        mVerbose = pVerbose;
         mPlayer = pPlayer;
-        mInputStream = pInputStream;
-        mOutputStream = pOutputStream;
+        mInputStream = new ProtocolReader(pInputStream);
+        mOutputStream = new ProtocolWriter(pOutputStream);
         mState = null;
     }
 
@@ -27,66 +38,72 @@ class Client {
         while (processMessage())
             ;
 
-        if (Main.gVerbose)
-            System.err.println("Final score: " + mState.myScore());
+        if (mState == null)
+            return;
+        mPlayer.endGame(mState);
+
+        if (mVerbose)
+            mLog.println("Final score: " + mState.myScore());
     }
 
     /**
      * Process a message from the server
      */
     private boolean processMessage() throws Exception {
-        // Read message from stream
-        String lString;
-        if ((lString = mInputStream.readLine()) == null)
+        // Read message type from stream
+        int lMessageType = mInputStream.readMessageType();
+        if (lMessageType == -1)
             return false;
 
-        // Parse message
-        StringTokenizer lMessage = new StringTokenizer(lString);
-        String lMessageType = lMessage.nextToken();
-
-        if (lMessageType.equals("GAME")) {
+        if (lMessageType == ProtocolReader.GAME) {
             // Get my player id and how many players there are in total
-            int lWhoIAm = Integer.parseInt(lMessage.nextToken());
-            int lNumPlayers = Integer.parseInt(lMessage.nextToken());
+            int lWhoIAm = mInputStream.readInt();
+            int lNumPlayers = mInputStream.readInt();
             mState = new GameState(lWhoIAm, lNumPlayers);
-        } else if (lMessageType.equals("SCORE")) {
+            mScores = new int[lNumPlayers];
+        } else if (lMessageType == ProtocolReader.SCORE) {
             // Read the score for each player
-            int[] lScores = new int[mState.getNumPlayers()];
-            for (int i = 0; i < lScores.length; ++i)
-                lScores[i] = Integer.parseInt(lMessage.nextToken());
-            mState.setScores(lScores);
-
-            if (Main.gVerbose)
-                System.err.println("My score: " + mState.myScore());
-        } else if (lMessageType.equals("ROUND")) {
+            for (int i = 0; i < mScores.length; ++i)
+                mScores[i] = mInputStream.readInt();
+            mState.setScores(mScores);
+
+            if (mVerbose)
+                mLog.println("My score: " + mState.myScore());
+        } else if (lMessageType == ProtocolReader.ROUND) {
             // Get current round and number of birds
-            int lRound = Integer.parseInt(lMessage.nextToken());
-            int lNumBirds = Integer.parseInt(lMessage.nextToken());
+            int lRound = mInputStream.readInt();
+            int lNumBirds = mInputStream.readInt();
             mState.newRound(lRound, lNumBirds);
-        } else if (lMessageType.equals("MOVES")) {
-            int lNumMoves = Integer.parseInt(lMessage.nextToken());
-            int lNewObservations[] = new int[mState.getNumBirds()];
+            if (mNewObservations == null || mNewObservations.length != lNumBirds) {
+                mNewObservations = new int[lNumBirds];
+                mRevealedSpecies = new int[lNumBirds];
+            }
+        } else if (lMessageType == ProtocolReader.MOVES) {
+            int lNumMoves = mInputStream.readInt();
+            mInputStream.endLine();
 
             // Read moves line by line
             for (int i = 0; i < lNumMoves; ++i) {
-                if ((lString = mInputStream.readLine()) == null)
-                    throw new Exception(
-                            "getline failed while reading MOVES in readMessage");
-
-                StringTokenizer lMoves = new StringTokenizer(lString);
                 for (int b = 0; b < mState.getNumBirds(); ++b)
-                    lNewObservations[b] = Integer.parseInt(lMoves.nextToken());
+                    mNewObservations[b] = mInputStream.readInt();
 
                 // Add the observed moves to the birds
-                mState.addMoves(lNewObservations);
+                mState.addMoves(mNewObservations);
 
-                if (lMoves.hasMoreTokens())
+                if (mInputStream.hasMoreTokens())
                     throw new Exception(
                             "Trailing input for MOVES data in readMessage");
+                mInputStream.endLine();
             }
-        } else if (lMessageType.equals("SHOOT")) {
+
+            // Let the player get to work on them before it is asked anything
+            mPlayer.onMoves(mState);
+
+            // The header line was ended before the moves
+            return true;
+        } else if (lMessageType == ProtocolReader.SHOOT) {
             // Read deadline in milliseconds
-            int lMs = Integer.parseInt(lMessage.nextToken());
+            int lMs = mInputStream.readInt();
 
             // Ask the player what to do
             Deadline lDue = new Deadline(lMs);
@@ -98,11 +115,15 @@ class Client {
             mState.resetNumNewTurns();
 
             // Send response
-            mOutputStream.println(lAction.getBirdNumber() + " "
-                    + lAction.getMovement());
-        } else if (lMessageType.equals("GUESS")) {
+            mOutputStream.writeInt(lAction.getBirdNumber());
+            mOutputStream.writeInt(lAction.getMovement());
+            mOutputStream.endLine();
+            mOutputStream.flush();
+            if (mOutputStream.checkError())
+                throw new Exception("Failed to send the answer to the server");
+        } else if (lMessageType == ProtocolReader.GUESS) {
             // Read deadline in milliseconds
-            int lMs = Integer.parseInt(lMessage.nextToken());
+            int lMs = mInputStream.readInt();
 
             // Ask the player what to do
             Deadline lDue = new Deadline(lMs);
@@ -119,45 +140,43 @@ class Client {
 
             // Send response
             for (int g : lGuesses)
-                mOutputStream.print(g + " ");
-            mOutputStream.println();
-        } else if (lMessageType.equals("HIT")) {
+                mOutputStream.writeInt(g);
+            mOutputStream.endLine();
+            mOutputStream.flush();
+            if (mOutputStream.checkError())
+                throw new Exception("Failed to send the answer to the server");
+        } else if (lMessageType == ProtocolReader.HIT) {
             // Read which bird we hit
-            int lBird = Integer.parseInt(lMessage.nextToken());
-            int lMs = Integer.parseInt(lMessage.nextToken());
+            int lBird = mInputStream.readInt();
+            int lMs = mInputStream.readInt();
 
             // Tell the player
             Deadline lDue = new Deadline(lMs);
             mPlayer.hit(mState, lBird, lDue);
             if (lDue.remainingMs() < 0)
                 throw new Exception("Player timed out during HIT");
-        } else if (lMessageType.equals("REVEAL")) {
+        } else if (lMessageType == ProtocolReader.REVEAL) {
             // Read the species of the birds
-            int lRevealedSpecies[] = new int[mState.getNumBirds()];
             for (int i = 0; i < mState.getNumBirds(); ++i)
-                lRevealedSpecies[i] = Integer.parseInt(lMessage.nextToken());
+                mRevealedSpecies[i] = mInputStream.readInt();
 
-            int lMs = Integer.parseInt(lMessage.nextToken());
+            int lMs = mInputStream.readInt();
 
             // Tell the player
             Deadline lDue = new Deadline(lMs);
-            mPlayer.reveal(mState, lRevealedSpecies, lDue);
+            mPlayer.reveal(mState, mRevealedSpecies, lDue);
             if (lDue.remainingMs() < 0)
                 throw new Exception("Player timed out during REVEAL");
-        } else if (lMessageType.equals("TIMEOUT")) {
+        } else if (lMessageType == ProtocolReader.TIMEOUT) {
             throw new Exception("Received TIMEOUT from server");
-        } else if (lMessageType.equals("GAMEOVER")) {
-            if (Main.gVerbose)
-                System.err.println("Received GAMEOVER from server");
+        } else if (lMessageType == ProtocolReader.GAMEOVER) {
+            if (mVerbose)
+                mLog.println("Received GAMEOVER from server");
             return false;
-        } else {
-            throw new Exception("Failed to parse message in readMessage:\n"
-                    + lString);
         }
 
-        if (lMessage.hasMoreTokens())
-            throw new Exception("Trailing input for " + lMessageType
-                    + " in readMessage");
+        // Fails on trailing input
+        mInputStream.endLine();
 
         // Return false if the stream is broken or closed
         return true;
@@ -165,6 +184,12 @@ class Client {
 
     private Player mPlayer;
     private GameState mState;
-    private BufferedReader mInputStream;
-    private PrintStream mOutputStream;
+    private ProtocolReader mInputStream;
+    // Reused for every message, the player sees the same arrays every time
+    private int[] mScores;
+    private int[] mNewObservations;
+    private int[] mRevealedSpecies;
+    private ProtocolWriter mOutputStream;
+    private PrintStream mLog;
+    private boolean mVerbose;
 };
\ No newline at end of file
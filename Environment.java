@@ -0,0 +1,194 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Scanner;
+
+/**
+ * The birds of every round of a game: their species and the action they
+ * take in every turn.
+ *
+ * An environment is kept in the binary format, either read from a file
+ * with FileChannel.map or packed in memory from the text format. All
+ * numbers are big endian:
+ *
+ * int magic ("DHEV"), int version, int rounds, int turns
+ * for every round:
+ *   int birds
+ *   byte species, for every bird
+ *   (turns + 1) / 2 bytes of actions, for every bird
+ *
+ * Actions are stored plus one, so MOVE_DEAD is 0, two to a byte with the
+ * earlier turn in the high nibble.
+ *
+ * Everything is checked when the environment is built, so a corrupt file
+ * fails with an IOException there rather than while it is played.
+ * Environments are only read once built, so games may share one.
+ *
+ * The text format is the number of rounds, then for every round the number
+ * of birds and for every bird its species followed by its actions.
+ */
+class Environment {
+    static final int MAGIC = 0x44484556;
+    static final int VERSION = 1;
+    // Actions per bird in the text format, which does not say
+    static final int TEXT_TURNS = 100;
+    private static final int HEADER_SIZE = 16;
+
+    private final ByteBuffer mData;
+    private final int mTurns;
+    private final int mBytesPerBird;
+    private final int[] mNumBirds;
+    // Where the species bytes of every round start
+    private final int[] mRoundOffsets;
+
+    private Environment(ByteBuffer pData) throws IOException {
+        mData = pData;
+        if (pData.limit() < HEADER_SIZE || pData.getInt(0) != MAGIC)
+            throw new IOException("Not a binary environment");
+        if (pData.getInt(4) != VERSION)
+            throw new IOException("Unsupported environment version " + pData.getInt(4));
+        int lRounds = pData.getInt(8);
+        mTurns = pData.getInt(12);
+        // Every round takes at least its number of birds
+        if (lRounds < 0 || lRounds > (pData.limit() - HEADER_SIZE) / 4)
+            throw new IOException("Invalid number of rounds " + lRounds);
+        if (mTurns < 0 || mTurns > 2L * pData.limit())
+            throw new IOException("Invalid number of turns " + mTurns);
+        mBytesPerBird = (mTurns + 1) / 2;
+
+        mNumBirds = new int[lRounds];
+        mRoundOffsets = new int[lRounds];
+        long lOffset = HEADER_SIZE;
+        for (int r = 0; r < lRounds; ++r) {
+            if (lOffset + 4 > pData.limit())
+                throw new IOException("Environment truncated in round " + r);
+            mNumBirds[r] = pData.getInt((int) lOffset);
+            if (mNumBirds[r] < 0)
+                throw new IOException("Invalid number of birds " + mNumBirds[r] + " in round " + r);
+            mRoundOffsets[r] = (int) lOffset + 4;
+            lOffset += 4 + (long) mNumBirds[r] * (1 + mBytesPerBird);
+            if (lOffset > pData.limit())
+                throw new IOException("Environment truncated in round " + r);
+            check(r);
+        }
+    }
+
+    // /throws if a species or an action of round pRound is out of range
+    private void check(int pRound) throws IOException {
+        int lOffset = mRoundOffsets[pRound];
+        for (int b = 0; b < mNumBirds[pRound]; ++b) {
+            int lSpecies = mData.get(lOffset + b);
+            if (lSpecies < 0 || lSpecies >= Constants.COUNT_SPECIES)
+                throw new IOException("Invalid species " + lSpecies + " in round " + pRound);
+        }
+        lOffset += mNumBirds[pRound];
+        for (int i = 0; i < mNumBirds[pRound] * mBytesPerBird; ++i) {
+            int lByte = mData.get(lOffset + i);
+            // Actions are stored plus one, so no nibble is above COUNT_MOVE
+            if (((lByte >> 4) & 0xf) > Constants.COUNT_MOVE || (lByte & 0xf) > Constants.COUNT_MOVE)
+                throw new IOException("Invalid action in round " + pRound);
+        }
+    }
+
+    // /reads either format, telling them apart by the magic number
+    public static Environment load(String pFilename) throws IOException {
+        int lMagic = 0;
+        try (DataInputStream lIn = new DataInputStream(new FileInputStream(pFilename))) {
+            if (lIn.available() >= 4)
+                lMagic = lIn.readInt();
+        }
+        if (lMagic == MAGIC)
+            return map(Paths.get(pFilename));
+        try (FileReader lReader = new FileReader(pFilename)) {
+            return readText(lReader, TEXT_TURNS);
+        }
+    }
+
+    // /maps a file in the binary format, actions are only decoded when played
+    public static Environment map(Path pPath) throws IOException {
+        try (FileChannel lChannel = FileChannel.open(pPath, StandardOpenOption.READ)) {
+            return new Environment(lChannel.map(FileChannel.MapMode.READ_ONLY, 0, lChannel.size()));
+        }
+    }
+
+    // /parses the text format, with pTurns actions per bird, and packs it
+    public static Environment readText(Readable pStream, int pTurns) throws IOException {
+        Scanner lScanner = new Scanner(pStream);
+        ByteArrayOutputStream lBytes = new ByteArrayOutputStream();
+        DataOutputStream lOut = new DataOutputStream(lBytes);
+        int lRounds = lScanner.nextInt();
+        lOut.writeInt(MAGIC);
+        lOut.writeInt(VERSION);
+        lOut.writeInt(lRounds);
+        lOut.writeInt(pTurns);
+
+        byte[] lPacked = new byte[(pTurns + 1) / 2];
+        for (int r = 0; r < lRounds; ++r) {
+            int lNumBirds = lScanner.nextInt();
+            byte[] lSpecies = new byte[lNumBirds];
+            byte[] lActions = new byte[lNumBirds * lPacked.length];
+            for (int b = 0; b < lNumBirds; ++b) {
+                lSpecies[b] = (byte) lScanner.nextInt();
+                Arrays.fill(lPacked, (byte) 0);
+                for (int i = 0; i < pTurns; ++i) {
+                    int lAction = lScanner.nextInt();
+                    if (lAction < Constants.MOVE_DEAD || lAction >= Constants.COUNT_MOVE)
+                        throw new IOException("Invalid action " + lAction + " in round " + r);
+                    lPacked[i >> 1] |= (lAction + 1) << ((i & 1) == 0 ? 4 : 0);
+                }
+                System.arraycopy(lPacked, 0, lActions, b * lPacked.length, lPacked.length);
+            }
+            lOut.writeInt(lNumBirds);
+            lOut.write(lSpecies);
+            lOut.write(lActions);
+        }
+        lScanner.close();
+        lOut.flush();
+        return new Environment(ByteBuffer.wrap(lBytes.toByteArray()));
+    }
+
+    // /writes the environment in the binary format
+    public void write(Path pPath) throws IOException {
+        try (FileChannel lChannel = FileChannel.open(pPath, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer lData = mData.duplicate();
+            lData.clear();
+            while (lData.hasRemaining())
+                lChannel.write(lData);
+        }
+    }
+
+    public int getNumRounds() {
+        return mNumBirds.length;
+    }
+
+    // /actions of every bird in a round
+    public int getNumTurns() {
+        return mTurns;
+    }
+
+    public int getNumBirds(int pRound) {
+        return mNumBirds[pRound];
+    }
+
+    public int getSpecies(int pRound, int pBird) {
+        return mData.get(mRoundOffsets[pRound] + pBird);
+    }
+
+    // /the action of bird pBird in turn pTurn of round pRound
+    public int getAction(int pRound, int pBird, int pTurn) {
+        int lOffset = mRoundOffsets[pRound] + mNumBirds[pRound]
+                + pBird * mBytesPerBird + (pTurn >> 1);
+        int lByte = mData.get(lOffset);
+        return ((pTurn & 1) == 0 ? (lByte >> 4) & 0xf : lByte & 0xf) - 1;
+    }
+}
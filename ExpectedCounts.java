@@ -0,0 +1,39 @@
+/**
+ * Sufficient statistics of Baum-Welch: the expected initial states,
+ * transitions and emissions of one or more sequences under a model.
+ *
+ * Counts of different sequences simply add up, and FlatHMM re-estimates its
+ * parameters from them, so a model can be fitted to many sequences without
+ * keeping the sequences around. Laid out like FlatHMM:
+ *   transitionCounts[i * N + j] = expected transitions i -> j
+ *   emissionCounts[k * N + i]   = expected emissions of k in state i
+ */
+class ExpectedCounts {
+    final int states;
+    final int emissions;
+    final double[] initialCounts;
+    final double[] transitionCounts;
+    final double[] emissionCounts;
+    // /number of sequences added
+    int sequences;
+
+    public ExpectedCounts(int states, int emissions) {
+        this.states = states;
+        this.emissions = emissions;
+        initialCounts = new double[states];
+        transitionCounts = new double[states * states];
+        emissionCounts = new double[emissions * states];
+    }
+
+    public void add(ExpectedCounts other) {
+        if (other.states != states || other.emissions != emissions)
+            throw new IllegalArgumentException("Counts of models of different shapes");
+        for (int i = 0; i < initialCounts.length; i++)
+            initialCounts[i] += other.initialCounts[i];
+        for (int i = 0; i < transitionCounts.length; i++)
+            transitionCounts[i] += other.transitionCounts[i];
+        for (int i = 0; i < emissionCounts.length; i++)
+            emissionCounts[i] += other.emissionCounts[i];
+        sequences += other.sequences;
+    }
+}
@@ -0,0 +1,558 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Same model as {@link HMM}, but stored in contiguous row-major arrays.
+ *
+ * A is N x N with A(i, j) at a[i * N + j]. B is kept transposed, emission-major,
+ * so the N emission probabilities of one observation, B(., k), are the
+ * contiguous slice bT[k * N .. k * N + N).
+ */
+public class FlatHMM {
+    private static final double MIN_EMISSION_PROB = 1e-10;
+    private static final HMMKernels K = HMMKernels.INSTANCE;
+
+    private final int N;
+    private final int M;
+    private final double[] a;
+    private final double[] bT;
+    private final double[] pi;
+    private final double[] finalStateProbs;
+    private double logLikelihood;
+    // gamma(t, i) = P(state i at t | sequence) as of the last update, T x N
+    // row-major, allocated on the first update
+    private double[] posteriors;
+    private int posteriorLength;
+
+    public FlatHMM(int states, int emissions) {
+        this(states, emissions, new Random());
+    }
+
+    // /parameters drawn from random, so a seeded generator gives the same model every time
+    public FlatHMM(int states, int emissions, Random random) {
+        N = states;
+        M = emissions;
+        a = new double[N * N];
+        bT = new double[M * N];
+        pi = new double[N];
+        finalStateProbs = new double[N];
+        randomize(random);
+    }
+
+    /**
+     * A model with the given parameters, laid out as described above, which
+     * are copied. The final state probabilities start at zero.
+     */
+    FlatHMM(int states, int emissions, double[] a, double[] bT, double[] pi) {
+        N = states;
+        M = emissions;
+        this.a = Arrays.copyOf(a, N * N);
+        this.bT = Arrays.copyOf(bT, M * N);
+        this.pi = Arrays.copyOf(pi, N);
+        finalStateProbs = new double[N];
+    }
+
+    /**
+     * The model that best explains the sequences behind the counts, the M
+     * step of Baum-Welch over all of them at once. States that were never
+     * left get uniform transitions.
+     */
+    FlatHMM(ExpectedCounts counts) {
+        N = counts.states;
+        M = counts.emissions;
+        a = new double[N * N];
+        bT = new double[M * N];
+        pi = new double[N];
+        finalStateProbs = new double[N];
+
+        double total = K.sum(counts.initialCounts, 0, N);
+        for (int i = 0; i < N; i++) {
+            pi[i] = total > 0 ? counts.initialCounts[i] / total : 1.0 / N;
+        }
+        Arrays.fill(a, 1.0 / N);
+        double[] visits = new double[N];
+        for (int k = 0; k < M; k++) {
+            K.axpy(1, counts.emissionCounts, k * N, visits, 0, N);
+        }
+        maximize(counts.transitionCounts, counts.emissionCounts, visits);
+    }
+
+    // /a model with the same parameters, trained independently from this one
+    FlatHMM copy() {
+        return new FlatHMM(N, M, a, bT, pi);
+    }
+
+    /**
+     * Makes this model a copy of other, including where its last update
+     * left it, without allocating. The models must have the same shape.
+     */
+    void copyFrom(FlatHMM other) {
+        if (other.N != N || other.M != M)
+            throw new IllegalArgumentException("Models of different shapes");
+        System.arraycopy(other.a, 0, a, 0, a.length);
+        System.arraycopy(other.bT, 0, bT, 0, bT.length);
+        System.arraycopy(other.pi, 0, pi, 0, pi.length);
+        System.arraycopy(other.finalStateProbs, 0, finalStateProbs, 0, finalStateProbs.length);
+        logLikelihood = other.logLikelihood;
+    }
+
+    // /draws new parameters from random in place, as the constructor does
+    void randomize(Random random) {
+        for (int i = 0; i < N; i++) {
+            fillRow(random, a, i * N, 1, N);
+            fillRow(random, bT, i, N, M);
+        }
+        fillRow(random, pi, 0, 1, N);
+    }
+
+    private static void fillRow(Random r, double[] matrix, int offset, int stride, int length) {
+        double sum = 0;
+        for (int j = 0; j < length; j++) {
+            double rand = r.nextDouble();
+            matrix[offset + j * stride] = rand;
+            sum += rand;
+        }
+
+        for (int j = 0; j < length; j++) {
+            matrix[offset + j * stride] /= sum;
+        }
+    }
+
+    public int getNumStates() {
+        return N;
+    }
+
+    public int getNumEmissions() {
+        return M;
+    }
+
+    public double[] predictNextEmissions(int[] sequence) {
+        return predictNextEmissions(finalStateProbs);
+    }
+
+    /**
+     * Emission probabilities of the next observation, given the probabilities
+     * of the states at the current one.
+     */
+    public double[] predictNextEmissions(double[] stateProbs) {
+        return predictNextEmissions(stateProbs, new double[N], new double[M]);
+    }
+
+    /**
+     * As above, into nextEmissionProbs, which is returned. nextStateProbs is
+     * scratch of N values and must not be stateProbs.
+     */
+    double[] predictNextEmissions(double[] stateProbs, double[] nextStateProbs, double[] nextEmissionProbs) {
+        Arrays.fill(nextStateProbs, 0, N, 0);
+        for (int i = 0; i < N; i++) {
+            double p = stateProbs[i];
+            int row = i * N;
+            for (int j = 0; j < N; j++) {
+                nextStateProbs[j] += a[row + j] * p;
+            }
+        }
+
+        // Get the probabilities of the emissions in the predicted next state
+        for (int k = 0; k < M; k++) {
+            int col = k * N;
+            double sum = 0;
+            for (int i = 0; i < N; i++) {
+                sum += bT[col + i] * nextStateProbs[i];
+            }
+            nextEmissionProbs[k] = sum;
+        }
+
+        return nextEmissionProbs;
+    }
+
+    public int getMostProbableObservation(double[] probs) {
+        double max = Integer.MIN_VALUE;
+        int mostProbable = -1;
+        for (int i = 0; i < probs.length; i++) {
+            if (probs[i] > max) {
+                max = probs[i];
+                mostProbable = i;
+            }
+        }
+        return mostProbable;
+    }
+
+    public void baumWelch(int iterations, int[] sequence) {
+        baumWelch(iterations, SequenceView.of(sequence), new HMMWorkspace(N, M, sequence.length));
+    }
+
+    /**
+     * Runs Baum-Welch using the buffers of the given workspace, allocating
+     * nothing once the workspace is large enough.
+     */
+    public void baumWelch(int iterations, SequenceView sequence, HMMWorkspace workspace) {
+        baumWelch(iterations, sequence, workspace, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Runs at most maxIterations of Baum-Welch starting from the current
+     * parameters, and stops early once an iteration improves the
+     * log-likelihood of the sequence by less than threshold. Meant for warm
+     * starts, where the model was trained on a prefix of the same sequence and
+     * only needs a few iterations to converge again. Returns the number of
+     * iterations that updated the model.
+     */
+    public int baumWelch(int maxIterations, SequenceView sequence, HMMWorkspace workspace, double threshold) {
+        workspace.ensureCapacity(N, M, sequence.length);
+        double previous = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < maxIterations; i++) {
+            logLikelihood = forward(sequence, workspace.alpha, workspace.alphaScale);
+            if (logLikelihood - previous < threshold) {
+                // Converged, keep the parameters but let the final state
+                // probabilities catch up with them. With beta(T - 1) = 1,
+                // gamma(T - 1) is the last normalized alpha.
+                System.arraycopy(workspace.alpha, (sequence.length - 1) * N, finalStateProbs, 0, N);
+                return i;
+            }
+            backward(sequence, workspace.beta, workspace.betaScale, workspace.weighted);
+            update(sequence, workspace);
+            previous = logLikelihood;
+        }
+        return maxIterations;
+    }
+
+    /**
+     * Scaled forward pass. Returns alpha as a T x N row-major array where every
+     * row is normalized to sum to one.
+     */
+    public double[] forward(int[] sequence) {
+        return forward(SequenceView.of(sequence));
+    }
+
+    public double[] forward(SequenceView sequence) {
+        double[] alpha = new double[sequence.length * N];
+        forward(sequence, alpha, new double[sequence.length]);
+        return alpha;
+    }
+
+    /**
+     * Fills alpha and the per step normalizers c(t), and returns the
+     * log-likelihood of the sequence, the sum of log c(t).
+     */
+    private double forward(SequenceView sequence, double[] alpha, double[] alphaScale) {
+        int T = sequence.length;
+        if (T == 0)
+            return 0;
+
+        int[] obs = sequence.data;
+        int base = sequence.offset;
+        alphaScale[0] = initAlpha(obs[base], alpha, 0);
+        double logLikelihood = Math.log(alphaScale[0]);
+        for (int t = 1; t < T; t++) {
+            alphaScale[t] = stepAlpha(alpha, (t - 1) * N, obs[base + t], alpha, t * N);
+            logLikelihood += Math.log(alphaScale[t]);
+        }
+        return logLikelihood;
+    }
+
+    /**
+     * alpha(0) = pi .* B(., o), normalized. Returns the normalizer.
+     */
+    double initAlpha(int observation, double[] alpha, int offset) {
+        double totalProb = K.multiply(bT, observation * N, pi, 0, alpha, offset, N);
+        K.divide(alpha, offset, N, totalProb);
+        return totalProb;
+    }
+
+    /**
+     * alpha(t) = (alpha(t - 1) * A) .* B(., o), normalized. Returns the
+     * normalizer. The two rows must not overlap.
+     */
+    double stepAlpha(double[] prev, int prevOffset, int observation, double[] cur, int curOffset) {
+        Arrays.fill(cur, curOffset, curOffset + N, 0);
+        for (int j = 0; j < N; j++) {
+            K.axpy(prev[prevOffset + j], a, j * N, cur, curOffset, N);
+        }
+
+        double totalProb = K.multiply(bT, observation * N, cur, curOffset, cur, curOffset, N);
+        K.divide(cur, curOffset, N, totalProb);
+        return totalProb;
+    }
+
+    // /A in row-major order, not to be modified
+    double[] transitions() {
+        return a;
+    }
+
+    // /B transposed, emission-major, not to be modified
+    double[] emissionsByObservation() {
+        return bT;
+    }
+
+    // /pi, not to be modified
+    double[] initialProbs() {
+        return pi;
+    }
+
+    double[] getFinalStateProbs() {
+        return finalStateProbs;
+    }
+
+    // /log-likelihood of the training sequence, as of the last Baum-Welch iteration
+    double getLogLikelihood() {
+        return logLikelihood;
+    }
+
+    // /length of the sequence the posteriors are of, zero before the first update
+    int getPosteriorLength() {
+        return posteriorLength;
+    }
+
+    /**
+     * P(state i at step t | sequence), for the sequence of the last
+     * Baum-Welch update, under the parameters it started from. Kept from
+     * that update, so asking costs nothing.
+     */
+    double getPosterior(int t, int i) {
+        if (t < 0 || t >= posteriorLength)
+            throw new ArrayIndexOutOfBoundsException("Step " + t + " of " + posteriorLength);
+        return posteriors[t * N + i];
+    }
+
+    /**
+     * The most probable state path of the sequence, written to path, and its
+     * log probability. Works in log space, so it does not underflow however
+     * long the sequence, and allocates nothing once the workspace is large
+     * enough.
+     */
+    public double viterbi(SequenceView sequence, HMMWorkspace workspace, int[] path) {
+        int T = sequence.length;
+        if (T == 0)
+            return 0;
+        workspace.ensureCapacity(N, M, T);
+        double[] logA = workspace.logA;
+        double[] logBT = workspace.logBT;
+        double[] delta = workspace.delta;
+        int[] psi = workspace.psi;
+        for (int i = 0; i < N * N; i++) {
+            logA[i] = Math.log(a[i]);
+        }
+        for (int i = 0; i < M * N; i++) {
+            logBT[i] = Math.log(bT[i]);
+        }
+
+        // delta(t, j) = log P(best path ending in j at t, o_0 .. o_t), rows
+        // t alternate between the two halves of delta
+        int[] obs = sequence.data;
+        int base = sequence.offset;
+        int col = obs[base] * N;
+        for (int i = 0; i < N; i++) {
+            delta[i] = Math.log(pi[i]) + logBT[col + i];
+        }
+        for (int t = 1; t < T; t++) {
+            int cur = (t & 1) * N;
+            int prev = N - cur;
+            col = obs[base + t] * N;
+            for (int j = 0; j < N; j++) {
+                double best = Double.NEGATIVE_INFINITY;
+                int from = 0;
+                for (int i = 0; i < N; i++) {
+                    double v = delta[prev + i] + logA[i * N + j];
+                    if (v > best) {
+                        best = v;
+                        from = i;
+                    }
+                }
+                delta[cur + j] = best + logBT[col + j];
+                psi[t * N + j] = from;
+            }
+        }
+
+        int last = ((T - 1) & 1) * N;
+        double best = Double.NEGATIVE_INFINITY;
+        path[T - 1] = 0;
+        for (int i = 0; i < N; i++) {
+            if (delta[last + i] > best) {
+                best = delta[last + i];
+                path[T - 1] = i;
+            }
+        }
+        for (int t = T - 1; t > 0; t--) {
+            path[t - 1] = psi[t * N + path[t]];
+        }
+        return best;
+    }
+
+    /**
+     * P(sequence | model). Underflows to zero for long sequences, so prefer
+     * logLikelihood when comparing models.
+     */
+    public double getSequenceProbability(int[] sequence) {
+        return getSequenceProbability(SequenceView.of(sequence), new HMMWorkspace(N, M, sequence.length));
+    }
+
+    public double getSequenceProbability(SequenceView sequence, HMMWorkspace workspace) {
+        return Math.exp(logLikelihood(sequence, workspace));
+    }
+
+    /**
+     * log P(sequence | model), computed from the scaling coefficients of a
+     * forward pass, which are left in the workspace.
+     */
+    public double logLikelihood(SequenceView sequence, HMMWorkspace workspace) {
+        workspace.ensureCapacity(N, M, sequence.length);
+        return forward(sequence, workspace.alpha, workspace.alphaScale);
+    }
+
+    // /scaled backward pass into the workspace, on its own for benchmarks
+    void backward(SequenceView sequence, HMMWorkspace workspace) {
+        workspace.ensureCapacity(N, M, sequence.length);
+        backward(sequence, workspace.beta, workspace.betaScale, workspace.weighted);
+    }
+
+    /**
+     * Scaled backward pass. Every row of beta is normalized to sum to one, and
+     * the normalizer used for row t is kept in betaScale[t].
+     */
+    private void backward(SequenceView sequence, double[] beta, double[] betaScale, double[] weighted) {
+        int T = sequence.length;
+        int[] obs = sequence.data;
+        int base = sequence.offset;
+
+        for (int i = 0; i < N; i++) {
+            beta[(T - 1) * N + i] = 1;
+        }
+        betaScale[T - 1] = 1;
+
+        for (int t = T - 1; t > 0; t--) {
+            int cur = t * N;
+            int prev = (t - 1) * N;
+            K.multiply(beta, cur, bT, obs[base + t] * N, weighted, 0, N);
+
+            double totalProb = 0;
+            for (int i = 0; i < N; i++) {
+                double probSum = K.dot(a, i * N, weighted, 0, N);
+                beta[prev + i] = probSum;
+                totalProb += probSum;
+            }
+            K.divide(beta, prev, N, totalProb);
+            betaScale[t - 1] = totalProb;
+        }
+    }
+
+    /**
+     * Adds the expected counts of the sequence under the current parameters
+     * to counts, without changing the model: the E step of Baum-Welch.
+     */
+    public void accumulate(SequenceView sequence, HMMWorkspace workspace, ExpectedCounts counts) {
+        if (counts.states != N || counts.emissions != M)
+            throw new IllegalArgumentException("Counts of a model of a different shape");
+        if (sequence.length == 0)
+            return;
+        workspace.ensureCapacity(N, M, sequence.length);
+        forward(sequence, workspace.alpha, workspace.alphaScale);
+        backward(sequence, workspace.beta, workspace.betaScale, workspace.weighted);
+        expect(sequence, workspace, counts.initialCounts, null, null);
+        K.axpy(1, workspace.xiSum, 0, counts.transitionCounts, 0, N * N);
+        K.axpy(1, workspace.emissionSum, 0, counts.emissionCounts, 0, M * N);
+        counts.sequences++;
+    }
+
+    /**
+     * Re-estimates pi, A and B in a single pass over t. Only the expected
+     * transition and emission counts are kept, so no per time step xi or
+     * gamma is stored.
+     */
+    private void update(SequenceView sequence, HMMWorkspace workspace) {
+        Arrays.fill(pi, 0);
+        if (posteriors == null || posteriors.length < sequence.length * N)
+            posteriors = new double[Math.max(sequence.length, HMMWorkspace.MAX_TURNS) * N];
+        posteriorLength = sequence.length;
+        expect(sequence, workspace, pi, finalStateProbs, posteriors);
+        maximize(workspace.xiSum, workspace.emissionSum, workspace.gammaSum);
+    }
+
+    /**
+     * Sets A and B from expected transition, emission and visit counts. The
+     * visit counts are changed. Rows of A without any transitions are kept.
+     */
+    private void maximize(double[] xiSum, double[] emissionSum, double[] gammaSum) {
+        // A(i, j) = expected transitions i -> j / expected transitions out of i
+        for (int i = 0; i < N; i++) {
+            int row = i * N;
+            double rowSum = K.sum(xiSum, row, N);
+            if (rowSum > 0) {
+                for (int j = 0; j < N; j++) {
+                    a[row + j] = xiSum[row + j] / rowSum;
+                }
+            }
+        }
+
+        // B(i, k) = expected emissions of k in i / expected visits to i, floored
+        // so that an observation the sequence has not shown yet is never given
+        // probability zero, which would zero out alpha once it does show up
+        for (int i = 0; i < N; i++) {
+            gammaSum[i] += M * MIN_EMISSION_PROB;
+        }
+        for (int k = 0; k < M; k++) {
+            int col = k * N;
+            for (int i = 0; i < N; i++) {
+                bT[col + i] = (emissionSum[col + i] + MIN_EMISSION_PROB) / gammaSum[i];
+            }
+        }
+    }
+
+    /**
+     * The expected counts of the sequence under the model, given the forward
+     * and backward passes in the workspace: transitions go to its xiSum,
+     * emissions to its emissionSum and state visits to its gammaSum. gamma(0)
+     * is added to first, gamma(T - 1) copied to last and every gamma(t) to
+     * row t of gammas, unless they are null.
+     */
+    private void expect(SequenceView sequence, HMMWorkspace workspace, double[] first, double[] last,
+                        double[] gammas) {
+        int T = sequence.length;
+        int[] obs = sequence.data;
+        int base = sequence.offset;
+        double[] alpha = workspace.alpha;
+        double[] beta = workspace.beta;
+        double[] betaScale = workspace.betaScale;
+        double[] gamma = workspace.gamma;
+        double[] weighted = workspace.weighted;
+        double[] xiSum = workspace.xiSum;
+        double[] gammaSum = workspace.gammaSum;
+        double[] emissionSum = workspace.emissionSum;
+
+        Arrays.fill(xiSum, 0, N * N, 0);
+        Arrays.fill(gammaSum, 0, N, 0);
+        Arrays.fill(emissionSum, 0, M * N, 0);
+
+        for (int t = 0; t < T; t++) {
+            int cur = t * N;
+
+            // gamma(t, i), normalized over the states
+            double sum = K.multiply(alpha, cur, beta, cur, gamma, 0, N);
+            K.divide(gamma, 0, N, sum);
+            K.axpy(1, gamma, 0, gammaSum, 0, N);
+            K.axpy(1, gamma, 0, emissionSum, obs[base + t] * N, N);
+            if (gammas != null)
+                System.arraycopy(gamma, 0, gammas, cur, N);
+
+            if (t == 0) {
+                K.axpy(1, gamma, 0, first, 0, N);
+            }
+            if (t == T - 1) {
+                if (last != null)
+                    System.arraycopy(gamma, 0, last, 0, N);
+                break;
+            }
+
+            // xi(t, i, j) = alpha(t, i) * A(i, j) * B(j, o_t+1) * beta(t + 1, j),
+            // normalized over all (i, j). Since the unscaled beta(t, i) is exactly
+            // sum_j A(i, j) * B(j, o_t+1) * beta(t + 1, j), that normalizer is
+            // betaScale(t) times the gamma normalizer above.
+            int next = (t + 1) * N;
+            K.multiply(beta, next, bT, obs[base + t + 1] * N, weighted, 0, N);
+
+            double norm = 1 / (betaScale[t] * sum);
+            for (int i = 0; i < N; i++) {
+                K.axpyMul(alpha[cur + i] * norm, a, i * N, weighted, 0, xiSum, i * N, N);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Online forward filter of one bird under one model.
+ *
+ * Keeps the normalized alpha of the latest observation and the log-likelihood
+ * of everything seen so far, so new observations cost O(N^2) each instead of
+ * a forward pass over the whole sequence.
+ *
+ * A filter can also be reused for other models of the same size, see
+ * resume.
+ */
+class ForwardFilter {
+    private FlatHMM model;
+    private double[] alpha;
+    private double[] scratch;
+    private int length;
+    private double logLikelihood;
+
+    public ForwardFilter(FlatHMM model) {
+        this.model = model;
+        alpha = new double[model.getNumStates()];
+        scratch = new double[model.getNumStates()];
+    }
+
+    // /a filter without a model yet, for models of the given number of states
+    public ForwardFilter(int states) {
+        alpha = new double[states];
+        scratch = new double[states];
+    }
+
+    // /number of observations consumed so far
+    public int getLength() {
+        return length;
+    }
+
+    public double getLogLikelihood() {
+        return logLikelihood;
+    }
+
+    public double[] predictNextEmissions() {
+        return model.predictNextEmissions(alpha);
+    }
+
+    // /as above, into nextEmissionProbs, which is returned
+    public double[] predictNextEmissions(double[] nextEmissionProbs) {
+        return model.predictNextEmissions(alpha, scratch, nextEmissionProbs);
+    }
+
+    /**
+     * Continues under model from a known state distribution, e.g. the final
+     * state probabilities of the model after training it on the first length
+     * observations. The model must have as many states as the filter.
+     */
+    public void resume(FlatHMM model, double[] stateProbs, double logLikelihood, int length) {
+        this.model = model;
+        System.arraycopy(stateProbs, 0, alpha, 0, alpha.length);
+        this.logLikelihood = logLikelihood;
+        this.length = length;
+    }
+
+    public void observe(int observation) {
+        if (length == 0) {
+            logLikelihood = Math.log(model.initAlpha(observation, alpha, 0));
+        } else {
+            logLikelihood += Math.log(model.stepAlpha(alpha, 0, observation, scratch, 0));
+            double[] temp = alpha;
+            alpha = scratch;
+            scratch = temp;
+        }
+        length++;
+    }
+
+    /**
+     * Feeds the bird's observations that have not been seen yet, stopping at
+     * the first MOVE_DEAD. Returns the number of observations consumed.
+     */
+    public int advance(Bird bird) {
+        int consumed = 0;
+        while (length < bird.getAliveLength()) {
+            observe(bird.getObservation(length));
+            consumed++;
+        }
+        return consumed;
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Plays whole games in process, see LocalGame, and reports games per
+ * second, the final scores and SHOOT and GUESS latency histograms per
+ * environment and over all of them.
+ *
+ *   java GameBenchmark [games 1] [players 1] [threads N] [margin 100] [X.in ...]
+ *
+ * Without environment files every *.in file in the working directory is
+ * played, each as many times as given by games. With several players,
+ * every game reports the score of each of them.
+ */
+class GameBenchmark {
+    public static void main(String[] args) throws Exception {
+        int lGames = 1;
+        int lPlayers = 1;
+        int lThreads = Runtime.getRuntime().availableProcessors();
+        long lSafetyMargin = Player.DEFAULT_SAFETY_MARGIN;
+        List<String> lEnvironments = new ArrayList<String>();
+
+        for (int i = 0; i < args.length; ++i) {
+            String param = args[i];
+            if (param.equals("games") || param.equals("players") || param.equals("threads")
+                    || param.equals("margin")) {
+                if (++i == args.length) {
+                    System.err.println("Missing value for parameter '" + param + "'");
+                    System.exit(-1);
+                }
+                if (param.equals("games"))
+                    lGames = Integer.parseInt(args[i]);
+                else if (param.equals("players"))
+                    lPlayers = Integer.parseInt(args[i]);
+                else if (param.equals("threads"))
+                    lThreads = Integer.parseInt(args[i]);
+                else
+                    lSafetyMargin = Long.parseLong(args[i]);
+            } else {
+                lEnvironments.add(param);
+            }
+        }
+        if (lEnvironments.isEmpty()) {
+            lEnvironments.addAll(Arrays.asList(LocalGame.listEnvironments(new File("."))));
+        }
+
+        LatencyHistogram lAllShoots = new LatencyHistogram("SHOOT");
+        LatencyHistogram lAllGuesses = new LatencyHistogram("GUESS");
+        int lPlayed = 0;
+        long lStart = System.nanoTime();
+        for (String lEnvironment : lEnvironments) {
+            LatencyHistogram lShoots = new LatencyHistogram("SHOOT");
+            LatencyHistogram lGuesses = new LatencyHistogram("GUESS");
+            int[][] lScores = new int[lGames][];
+            Environment lLoaded = Environment.load(lEnvironment);
+            long lEnvironmentStart = System.nanoTime();
+            for (int g = 0; g < lGames; g++) {
+                LocalGame lGame = new LocalGame(lThreads, lSafetyMargin, lShoots, lGuesses);
+                lScores[g] = lGame.play(lLoaded, lPlayers);
+            }
+            double lSeconds = (System.nanoTime() - lEnvironmentStart) / 1e9;
+            lPlayed += lGames;
+
+            System.out.println(String.format("%s: %d games in %.2f s, %.2f games/s, scores %s",
+                    lEnvironment, lGames, lSeconds, lGames / lSeconds, Arrays.deepToString(lScores)));
+            lShoots.print(System.out);
+            lGuesses.print(System.out);
+            System.out.println();
+            lAllShoots.add(lShoots);
+            lAllGuesses.add(lGuesses);
+        }
+
+        double lSeconds = (System.nanoTime() - lStart) / 1e9;
+        System.out.println(String.format("Total: %d games in %.2f s, %.2f games/s",
+                lPlayed, lSeconds, lPlayed / lSeconds));
+        lAllShoots.print(System.out);
+        lAllGuesses.print(System.out);
+    }
+}
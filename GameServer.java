@@ -1,10 +1,18 @@
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.StringReader;
 import java.util.Arrays;
-import java.util.Scanner;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * The GameServer runs the game and communicates with the client through text.
@@ -32,7 +40,10 @@ import java.util.StringTokenizer;
  * before responding.
  * Rounds start at 0.
  * There is only one environment per game.
- * The protocol supports several players but the GameServer currently does not.
+ * With several players, they take turns shooting, one turn each, and all of
+ * them guess at the same time. Every player has an I/O handler thread of its
+ * own that flushes the messages for it and waits for its answer, so a slow
+ * player only holds up the others until its own deadline.
  */
 
 class GameServer
@@ -40,18 +51,69 @@ class GameServer
 
     private class SPlayer
     {
-        SPlayer(BufferedReader pInputStream, PrintStream pOutputStream, int pID)
+        SPlayer(BufferedReader pInputStream, OutputStream pOutputStream, final int pID)
         {
             mInputStream = pInputStream;
-            mOutputStream = pOutputStream;
+            mOutputStream = new ProtocolWriter(pOutputStream);
             mID = pID;
             mNumSent = 0;
             mScore = 0;
             mGameOver = false;
+            mHandler = Executors.newSingleThreadExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable pTask)
+                {
+                    // A player that never answers must not keep the JVM alive
+                    Thread lThread = new Thread(pTask, "player-" + pID);
+                    lThread.setDaemon(true);
+                    return lThread;
+                }
+            });
+        }
+
+        // /flushes the pending messages on the handler and waits there for the answer
+        void ask()
+        {
+            mAnswer = mHandler.submit(new Callable<String>()
+            {
+                @Override
+                public String call() throws IOException
+                {
+                    synchronized (mWriteLock)
+                    {
+                        mOutputStream.flush();
+                    }
+                    return mInputStream.readLine();
+                }
+            });
+        }
+
+        // /flushes the pending messages on the handler
+        void send()
+        {
+            mHandler.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    synchronized (mWriteLock)
+                    {
+                        mOutputStream.flush();
+                    }
+                }
+            });
         }
 
         public BufferedReader mInputStream;
-        public PrintStream mOutputStream;
+        // Buffered, flushed before the server waits for the player. Only
+        // written by the server thread, while no handler task is pending or
+        // under mWriteLock
+        public ProtocolWriter mOutputStream;
+        // Held while the stream is flushed, by the handler or by removePlayer
+        final Object mWriteLock = new Object();
+        ExecutorService mHandler;
+        Future<String> mAnswer;
 
         int mID;
         int mNumSent;
@@ -59,91 +121,140 @@ class GameServer
         boolean mGameOver;
     }
 
-    private class BirdSequence
+    public GameServer(BufferedReader pInputStream, OutputStream pOutputStream)
+    {
+        this(pInputStream, pOutputStream, System.err, false);
+    }
+
+    /**
+     * Errors are written to pLog, and so is the progress of the game if
+     * pVerbose is set
+     */
+    public GameServer(BufferedReader pInputStream, OutputStream pOutputStream, PrintStream pLog,
+            boolean pVerbose)
     {
-        public int mSpecies;
-        public int[] mActions;
+        this(pLog, pVerbose);
+        addPlayer(pInputStream, pOutputStream);
     }
 
-    public GameServer(BufferedReader pInputStream, PrintStream pOutputStream)
+    // /a server without players, add them with addPlayer before run
+    public GameServer(PrintStream pLog, boolean pVerbose)
     {
+        mLog = pLog;
+        mVerbose = pVerbose;
         mMaxRounds = 2;
         mMaxTurns = 100;
         mTimeForShoot = 2000;
         mTimeForHit = 200;
         mTimeForGuess = 10000;
         mTimeForReveal = 1000;
-        mPlayers = new SPlayer[1];
-        mPlayers[0] = new SPlayer(pInputStream, pOutputStream, 0);
+        mPlayers = new SPlayer[0];
     }
 
-    public void load(Readable pStream)
+    // /adds a player connected through the streams and returns its ID
+    public int addPlayer(BufferedReader pInputStream, OutputStream pOutputStream)
     {
-        // Parse the environment file
-        Scanner lScanner = new Scanner(pStream);
-        mMaxRounds = lScanner.nextInt();
-        mEnvironment = new BirdSequence[mMaxRounds][];
-        for (int r = 0; r < mMaxRounds; ++r)
-        {
-            // Create new Round
-            int lNumBirds = lScanner.nextInt();
-            mEnvironment[r] = new BirdSequence[lNumBirds];
-            for (int b = 0; b < lNumBirds; ++b)
-            {
-                // Create sequence
-                mEnvironment[r][b] = new BirdSequence();
+        int lID = mPlayers.length;
+        mPlayers = Arrays.copyOf(mPlayers, lID + 1);
+        mPlayers[lID] = new SPlayer(pInputStream, pOutputStream, lID);
+        return lID;
+    }
 
-                // Read species
-                mEnvironment[r][b].mSpecies = lScanner.nextInt();
+    public void load(Readable pStream) throws IOException
+    {
+        // The text format has a fixed number of actions per bird
+        load(Environment.readText(pStream, mMaxTurns));
+    }
+
+    public void load(Environment pEnvironment)
+    {
+        mEnvironment = pEnvironment;
+        mMaxRounds = pEnvironment.getNumRounds();
+        mMaxTurns = pEnvironment.getNumTurns();
+    }
 
-                // Read observations
-                mEnvironment[r][b].mActions = new int[100];
-                for (int i = 0; i < 100; ++i)
-                    mEnvironment[r][b].mActions[i] = lScanner.nextInt();
+    public void run()
+    {
+        try
+        {
+            if (!play())
+                return;
+        }
+        finally
+        {
+            // Deliver whatever is left, then let the handlers go
+            for (SPlayer lPlayer : mPlayers)
+            {
+                lPlayer.send();
+                lPlayer.mHandler.shutdown();
+            }
+            for (SPlayer lPlayer : mPlayers)
+            {
+                try
+                {
+                    lPlayer.mHandler.awaitTermination(mTimeForReveal, TimeUnit.MILLISECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
             }
         }
-        lScanner.close();
+
+        if (mVerbose)
+        {
+            mLog.print("Final scores:");
+            for (SPlayer lPlayer : mPlayers)
+                mLog.print(" " + lPlayer.mScore);
+            mLog.println();
+        }
     }
 
-    public void run()
+    // /plays all rounds, false if the game ended because no players were left
+    private boolean play()
     {
         // Load default game if nothing is loaded
         if (mEnvironment == null)
         {
-            System.err.println("No environment loaded");
+            mLog.println("No environment loaded");
             System.exit(-1);
         }
 
-        if (Main.gVerbose)
-            System.err.println("Starting game with " + mPlayers.length
+        if (mVerbose)
+            mLog.println("Starting game with " + mPlayers.length
                     + (mPlayers.length == 1 ? " player" : " players"));
 
         // Send start of game
         for (int i = 0; i < mPlayers.length; ++i)
-            mPlayers[i].mOutputStream.println("GAME " + i + " " + mPlayers.length);
+        {
+            mPlayers[i].mOutputStream.writeType(ProtocolReader.GAME);
+            mPlayers[i].mOutputStream.writeInt(i);
+            mPlayers[i].mOutputStream.writeInt(mPlayers.length);
+            mPlayers[i].mOutputStream.endLine();
+        }
 
         // The players take turns shooting
         int lActivePlayer = 0;
 
         // Play all rounds
-        for (int r = 0; r < mEnvironment.length; ++r)
+        for (int r = 0; r < mEnvironment.getNumRounds(); ++r)
         {
             // Generate birds for this round
-            int lNumBirds = mEnvironment[r].length;
+            int lNumBirds = mEnvironment.getNumBirds(r);
             mBirds = new Bird[lNumBirds];
             mBirdSpecies = new int[lNumBirds];
             for (int b = 0; b < lNumBirds; ++b)
             {
                 // Set species
-                mBirdSpecies[b] = mEnvironment[r][b].mSpecies;
+                mBirdSpecies[b] = mEnvironment.getSpecies(r, b);
 
                 // Add the first observation
                 mBirds[b] = new Bird();
-                mBirds[b].addObservation(mEnvironment[r][b].mActions[0]);
+                mBirds[b].addObservation(mEnvironment.getAction(r, b, 0));
             }
 
-            if (Main.gVerbose)
-                System.err.println("Starting round " + r + " with " + mBirds.length + " birds");
+            if (mVerbose)
+                mLog.println("Starting round " + r + " with " + mBirds.length + " birds");
 
             // Send start of round
             for (SPlayer lPlayer : mPlayers)
@@ -156,8 +267,8 @@ class GameServer
             for (int i = 1; i < mMaxTurns; ++i)
             {
                 // Let the birds fly
-                for (int b = 0; b < mEnvironment[r].length; ++b)
-                    mBirds[b].addObservation(mEnvironment[r][b].mActions[i]);
+                for (int b = 0; b < mEnvironment.getNumBirds(r); ++b)
+                    mBirds[b].addObservation(mEnvironment.getAction(r, b, i));
 
                 SPlayer lPlayer = mPlayers[lActivePlayer];
                 lActivePlayer = (lActivePlayer + 1) % mPlayers.length;
@@ -170,7 +281,7 @@ class GameServer
 
                 // Stop if we have no players left
                 if (playersLeft() == 0)
-                    return;
+                    return false;
 
                 // End the round if all birds are dead
                 boolean lAnyAlive = false;
@@ -195,9 +306,12 @@ class GameServer
             for (SPlayer lPlayer : mPlayers)
                 sendScores(lPlayer);
 
-            // Let the players guess species
-            for (SPlayer lPlayer : mPlayers)
-                playerGuess(lPlayer);
+            // Let the players guess species, all at the same time
+            Deadline[] lDue = new Deadline[mPlayers.length];
+            for (int i = 0; i < mPlayers.length; ++i)
+                lDue[i] = askGuess(mPlayers[i]);
+            for (int i = 0; i < mPlayers.length; ++i)
+                playerGuess(mPlayers[i], lDue[i]);
 
             // Send scores to all players
             for (SPlayer lPlayer : mPlayers)
@@ -205,16 +319,15 @@ class GameServer
 
             // Stop if we have no players left
             if (playersLeft() == 0)
-                return;
+                return false;
         }
+        return true;
+    }
 
-        if (Main.gVerbose)
-        {
-            System.err.print("Final scores:");
-            for (SPlayer lPlayer : mPlayers)
-                System.err.print(" " + lPlayer.mScore);
-            System.err.println();
-        }
+    // /returns the score of the i-th player, final once run has returned
+    public int getScore(int i)
+    {
+        return mPlayers[i].mScore;
     }
 
     private void playerShoot(SPlayer pPlayer)
@@ -224,38 +337,18 @@ class GameServer
 
         // Ask the player to shoot
         Deadline lDue = new Deadline(mTimeForShoot);
-        pPlayer.mOutputStream.println("SHOOT " + lDue.remainingMs());
+        pPlayer.mOutputStream.writeType(ProtocolReader.SHOOT);
+        pPlayer.mOutputStream.writeInt((int) lDue.remainingMs());
+        pPlayer.mOutputStream.endLine();
 
-        if (Main.gVerbose)
-            System.err.println("Waiting for player to shoot");
+        if (mVerbose)
+            mLog.println("Waiting for player to shoot");
 
         // Read message from stream
-        String lString;
-        try
-        {
-            if ((lString = pPlayer.mInputStream.readLine()) == null)
-            {
-                System.err.println("getline failed for player " + pPlayer.mID);
-                pPlayer.mGameOver = true;
-                return;
-            }
-        }
-        catch (IOException e)
-        {
-            System.err.println("getline failed for player " + pPlayer.mID);
-            pPlayer.mGameOver = true;
+        pPlayer.ask();
+        String lString = getAnswer(pPlayer, lDue);
+        if (lString == null)
             return;
-        }
-
-        if (Main.gVerbose)
-            System.err.println("Got message from player: " + lString);
-
-        if (lDue.remainingMs() < 0)
-        {
-            System.err.println("Player " + pPlayer.mID + " timed out");
-            removePlayer(pPlayer, "TIMEOUT");
-            return;
-        }
 
         // Parse the message
         StringTokenizer lIn = new StringTokenizer(lString);
@@ -267,7 +360,7 @@ class GameServer
         }
         catch (Exception e)
         {
-            System.err.println("Failed to parse action for player " + pPlayer.mID);
+            mLog.println("Failed to parse action for player " + pPlayer.mID);
             pPlayer.mGameOver = true;
             return;
         }
@@ -285,13 +378,16 @@ class GameServer
                 {
                     // Hitting the black stork means disqualification
                     pPlayer.mScore = 0;
-                    removePlayer(pPlayer, "GAMEOVER");
+                    removePlayer(pPlayer, ProtocolReader.GAMEOVER);
                     return;
                 }
 
                 // Tell the player that it hit the bird
                 // The time is only measured in the client since we don't ask for a response
-                pPlayer.mOutputStream.println("HIT " + lBird + " " + mTimeForHit);
+                pPlayer.mOutputStream.writeType(ProtocolReader.HIT);
+                pPlayer.mOutputStream.writeInt(lBird);
+                pPlayer.mOutputStream.writeInt((int) mTimeForHit);
+                pPlayer.mOutputStream.endLine();
             }
             else
             {
@@ -300,44 +396,34 @@ class GameServer
         }
     }
 
-    private void playerGuess(SPlayer pPlayer)
+    /**
+     * Sends GUESS to the player without waiting for the answer, and returns
+     * the player's deadline
+     */
+    private Deadline askGuess(SPlayer pPlayer)
     {
         if (pPlayer.mGameOver)
-            return;
+            return null;
 
-        // Ask the player to guess
         Deadline lDue = new Deadline(mTimeForGuess);
-        pPlayer.mOutputStream.println("GUESS " + lDue.remainingMs());
-
-        if (Main.gVerbose)
-            System.err.println("Waiting for player to guess");
+        pPlayer.mOutputStream.writeType(ProtocolReader.GUESS);
+        pPlayer.mOutputStream.writeInt((int) lDue.remainingMs());
+        pPlayer.mOutputStream.endLine();
+        pPlayer.ask();
+        return lDue;
+    }
 
-        String lString;
-        try
-        {
-            if ((lString = pPlayer.mInputStream.readLine()) == null)
-            {
-                System.err.println("getline failed for player " + pPlayer.mID);
-                pPlayer.mGameOver = true;
-                return;
-            }
-        }
-        catch (IOException e)
-        {
-            System.err.println("getline failed for player " + pPlayer.mID);
-            pPlayer.mGameOver = true;
+    private void playerGuess(SPlayer pPlayer, Deadline pDue)
+    {
+        if (pPlayer.mGameOver)
             return;
-        }
 
-        if (Main.gVerbose)
-            System.err.println("Got message from player: " + lString);
+        if (mVerbose)
+            mLog.println("Waiting for player " + pPlayer.mID + " to guess");
 
-        if (lDue.remainingMs() < 0)
-        {
-            System.err.println("Player " + pPlayer.mID + " timed out");
-            removePlayer(pPlayer, "TIMEOUT");
+        String lString = getAnswer(pPlayer, pDue);
+        if (lString == null)
             return;
-        }
 
         // Parse the message and score the guesses
         StringTokenizer lIn = new StringTokenizer(lString);
@@ -354,7 +440,7 @@ class GameServer
             }
             catch (Exception e)
             {
-                System.err.println("Failed to read guess from player for bird " + i);
+                mLog.println("Failed to read guess from player for bird " + i);
                 pPlayer.mGameOver = true;
                 return;
             }
@@ -374,13 +460,13 @@ class GameServer
 
         if (lIn.hasMoreTokens())
         {
-            System.err.println("Trailing output when reading guess:\n" + lString);
+            mLog.println("Trailing output when reading guess:\n" + lString);
             pPlayer.mGameOver = true;
             return;
         }
 
-        if (Main.gVerbose)
-            System.err.println("Score for guessing: " + lScore);
+        if (mVerbose)
+            mLog.println("Score for guessing: " + lScore);
 
         pPlayer.mScore += lScore;
 
@@ -388,17 +474,74 @@ class GameServer
         // if the player made any guesses
         if (lDoReveal)
         {
-            pPlayer.mOutputStream.print("REVEAL");
+            pPlayer.mOutputStream.writeType(ProtocolReader.REVEAL);
             for (int lSpecies : lRevealing)
-                pPlayer.mOutputStream.print(" " + lSpecies);
-            pPlayer.mOutputStream.println(" " + mTimeForReveal);
+                pPlayer.mOutputStream.writeInt(lSpecies);
+            pPlayer.mOutputStream.writeInt((int) mTimeForReveal);
+            pPlayer.mOutputStream.endLine();
             // The time is only measured in the client since we don't ask for a response
         }
     }
 
-    private void removePlayer(SPlayer pPlayer, String pMessage)
+    /**
+     * Waits until the deadline for the answer the player was asked for, and
+     * returns it, or null if the player failed to answer in time
+     */
+    private String getAnswer(SPlayer pPlayer, Deadline pDue)
+    {
+        String lString;
+        try
+        {
+            lString = pPlayer.mAnswer.get(Math.max(0, pDue.remainingMs()), TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e)
+        {
+            // remainingMs may still read 0 here, the wait is what timed out
+            mLog.println("Player " + pPlayer.mID + " timed out");
+            removePlayer(pPlayer, ProtocolReader.TIMEOUT);
+            return null;
+        }
+        catch (ExecutionException e)
+        {
+            mLog.println("getline failed for player " + pPlayer.mID);
+            pPlayer.mGameOver = true;
+            return null;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            pPlayer.mGameOver = true;
+            return null;
+        }
+
+        if (lString != null && mVerbose)
+            mLog.println("Got message from player " + pPlayer.mID + ": " + lString);
+
+        if (pDue.remainingMs() < 0)
+        {
+            mLog.println("Player " + pPlayer.mID + " timed out");
+            removePlayer(pPlayer, ProtocolReader.TIMEOUT);
+            return null;
+        }
+
+        if (lString == null)
+        {
+            mLog.println("getline failed for player " + pPlayer.mID);
+            pPlayer.mGameOver = true;
+            return null;
+        }
+        return lString;
+    }
+
+    private void removePlayer(SPlayer pPlayer, int pMessage)
     {
-        pPlayer.mOutputStream.println(pMessage);
+        // Written right away, the handler may be stuck reading an answer that never comes
+        synchronized (pPlayer.mWriteLock)
+        {
+            pPlayer.mOutputStream.writeType(pMessage);
+            pPlayer.mOutputStream.endLine();
+            pPlayer.mOutputStream.flush();
+        }
         pPlayer.mGameOver = true;
     }
 
@@ -416,7 +559,10 @@ class GameServer
         if (pPlayer.mGameOver)
             return;
 
-        pPlayer.mOutputStream.println("ROUND " + pRound + " " + mBirds.length);
+        pPlayer.mOutputStream.writeType(ProtocolReader.ROUND);
+        pPlayer.mOutputStream.writeInt(pRound);
+        pPlayer.mOutputStream.writeInt(mBirds.length);
+        pPlayer.mOutputStream.endLine();
     }
 
     private void sendBirds(SPlayer pPlayer)
@@ -433,14 +579,16 @@ class GameServer
             return;
 
         // Observations header
-        pPlayer.mOutputStream.println("MOVES " + (lToSend - pPlayer.mNumSent));
+        pPlayer.mOutputStream.writeType(ProtocolReader.MOVES);
+        pPlayer.mOutputStream.writeInt(lToSend - pPlayer.mNumSent);
+        pPlayer.mOutputStream.endLine();
 
         // Observations
         for (; pPlayer.mNumSent < lToSend; ++pPlayer.mNumSent)
         {
             for (int i = 0; i < mBirds.length; ++i)
-                pPlayer.mOutputStream.print(mBirds[i].getObservation(pPlayer.mNumSent) + " ");
-            pPlayer.mOutputStream.println();
+                pPlayer.mOutputStream.writeInt(mBirds[i].getObservation(pPlayer.mNumSent));
+            pPlayer.mOutputStream.endLine();
         }
     }
 
@@ -449,12 +597,15 @@ class GameServer
         if (pPlayer.mGameOver)
             return;
 
-        pPlayer.mOutputStream.print("SCORE");
+        pPlayer.mOutputStream.writeType(ProtocolReader.SCORE);
         for (SPlayer lPlayer : mPlayers)
-            pPlayer.mOutputStream.print(" " + lPlayer.mScore);
-        pPlayer.mOutputStream.println();
+            pPlayer.mOutputStream.writeInt(lPlayer.mScore);
+        pPlayer.mOutputStream.endLine();
     }
 
+    private PrintStream mLog;
+    private boolean mVerbose;
+
     private int mMaxRounds;
     private int mMaxTurns;
 
@@ -464,7 +615,7 @@ class GameServer
     private long mTimeForReveal;
 
     private SPlayer[] mPlayers;
-    private BirdSequence[][] mEnvironment;
+    private Environment mEnvironment;
     private Bird[] mBirds;
     private int[] mBirdSpecies;
 }
@@ -146,8 +146,8 @@ public class HMM {
         return beta;
     }
 
-    private float calcAlphaSum(int t, int row, int N, double[][] alpha){
-        float sum = 0;
+    private double calcAlphaSum(int t, int row, int N, double[][] alpha){
+        double sum = 0;
         for(int j = 0; j < N; j++){
             sum += A[j][row]*alpha[t-1][j];
         }
@@ -0,0 +1,263 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Micro benchmarks for the HMM engines, with no dependencies beyond the JDK.
+ *
+ * Every combination of engine, state count, sequence length and Baum-Welch
+ * iteration count is run over the birds of an environment file, first for a
+ * warm-up period and then for a measured one. For every operation it reports
+ * throughput, bytes allocated per call and the median and 99th percentile
+ * latency of single calls.
+ *
+ *   java HMMBenchmark [engine flat,hmm] [states 5,10,20] [turns 100]
+ *                     [iterations 30] [load SouthEmissions.in]
+ *                     [warmup 200] [time 500]
+ *
+ * Lists are comma separated, times are in milliseconds. The Baum-Welch
+ * iteration count only applies to the baumWelch operation.
+ */
+class HMMBenchmark {
+    private static final String[] OPERATIONS = {
+            "baumWelch", "forward", "backward", "predictNextEmissions", "getSequenceProbability",
+            "viterbi" };
+    // Latency samples kept per benchmark, later calls still count towards throughput
+    private static final int MAX_SAMPLES = 1 << 20;
+
+    private interface Operation {
+        // /runs the operation on the i-th input sequence
+        void run(int i);
+    }
+
+    private final long mWarmupMs;
+    private final long mTimeMs;
+    private final long[] mSamples = new long[MAX_SAMPLES];
+
+    HMMBenchmark(long pWarmupMs, long pTimeMs) {
+        mWarmupMs = pWarmupMs;
+        mTimeMs = pTimeMs;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String[] lEngines = { "flat", "hmm" };
+        int[] lStates = { 5, 10, 20 };
+        int[] lTurns = { 100 };
+        int[] lIterations = { Player.ITERATIONS };
+        String lLoadFilename = "SouthEmissions.in";
+        long lWarmupMs = 200;
+        long lTimeMs = 500;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String param = args[i];
+            String value = args[i + 1];
+            if (param.equals("engine")) {
+                lEngines = value.split(",");
+            } else if (param.equals("states")) {
+                lStates = parseInts(value);
+            } else if (param.equals("turns")) {
+                lTurns = parseInts(value);
+            } else if (param.equals("iterations")) {
+                lIterations = parseInts(value);
+            } else if (param.equals("load")) {
+                lLoadFilename = value;
+            } else if (param.equals("warmup")) {
+                lWarmupMs = Long.parseLong(value);
+            } else if (param.equals("time")) {
+                lTimeMs = Long.parseLong(value);
+            } else {
+                System.err.println("Unknown parameter: '" + param + "'");
+                System.exit(-1);
+            }
+        }
+        if (args.length % 2 != 0) {
+            System.err.println("Missing value for parameter '" + args[args.length - 1] + "'");
+            System.exit(-1);
+        }
+
+        int[][] lBirds = loadSequences(lLoadFilename);
+        HMMBenchmark lBenchmark = new HMMBenchmark(lWarmupMs, lTimeMs);
+
+        System.out.println("# " + lLoadFilename + ", kernels " + HMMKernels.INSTANCE.name());
+        System.out.println(String.format("%-6s %-24s %4s %4s %5s %12s %10s %10s %10s",
+                "engine", "operation", "N", "T", "iter", "ops/s", "B/op", "p50 us", "p99 us"));
+        for (String lEngine : lEngines)
+            for (int lN : lStates)
+                for (int lT : lTurns) {
+                    int[][] lSequences = longerThan(lBirds, lT);
+                    if (lSequences.length == 0) {
+                        System.out.println("# no bird in " + lLoadFilename + " lives " + lT + " turns");
+                        continue;
+                    }
+                    for (String lOperation : OPERATIONS) {
+                        int[] lIters = lOperation.equals("baumWelch") ? lIterations : new int[] { 0 };
+                        for (int lIter : lIters)
+                            lBenchmark.run(lEngine, lOperation, lN, lIter, lSequences);
+                    }
+                }
+    }
+
+    private void run(String pEngine, String pOperation, int pStates, int pIterations, int[][] pSequences) {
+        Operation lOperation = pEngine.equals("hmm")
+                ? referenceOperation(pOperation, pStates, pIterations, pSequences)
+                : flatOperation(pOperation, pStates, pIterations, pSequences);
+        if (lOperation == null)
+            return;
+
+        // Warm up, then measure
+        measure(lOperation, pSequences.length, mWarmupMs);
+        long lAllocated = allocatedBytes();
+        long lStart = System.nanoTime();
+        long lCalls = measure(lOperation, pSequences.length, mTimeMs);
+        long lElapsed = System.nanoTime() - lStart;
+        lAllocated = allocatedBytes() - lAllocated;
+
+        int lSamples = (int) Math.min(lCalls, MAX_SAMPLES);
+        Arrays.sort(mSamples, 0, lSamples);
+        System.out.println(String.format("%-6s %-24s %4d %4d %5s %12.0f %10d %10.1f %10.1f",
+                pEngine, pOperation, pStates, pSequences[0].length,
+                pIterations > 0 ? Integer.toString(pIterations) : "-",
+                lCalls * 1e9 / lElapsed, lAllocated / lCalls,
+                mSamples[lSamples / 2] / 1e3, mSamples[(int) (lSamples * 0.99)] / 1e3));
+    }
+
+    /**
+     * Calls the operation on the inputs in turn for pMs milliseconds and
+     * returns the number of calls. Latency samples go to mSamples.
+     */
+    private long measure(Operation pOperation, int pInputs, long pMs) {
+        long lEnd = System.nanoTime() + pMs * 1000000L;
+        long lCalls = 0;
+        long lNow = System.nanoTime();
+        while (lNow < lEnd) {
+            pOperation.run((int) (lCalls % pInputs));
+            long lAfter = System.nanoTime();
+            if (lCalls < MAX_SAMPLES)
+                mSamples[(int) lCalls] = lAfter - lNow;
+            lNow = lAfter;
+            lCalls++;
+        }
+        return lCalls;
+    }
+
+    private static Operation flatOperation(String pOperation, int pStates, final int pIterations,
+                                           int[][] pSequences) {
+        final FlatHMM lModel = new FlatHMM(pStates, Constants.COUNT_MOVE);
+        final HMMWorkspace lWorkspace = new HMMWorkspace(pStates);
+        final SequenceView[] lViews = new SequenceView[pSequences.length];
+        for (int i = 0; i < lViews.length; i++)
+            lViews[i] = SequenceView.of(pSequences[i]);
+        lModel.baumWelch(1, lViews[0], lWorkspace);
+
+        if (pOperation.equals("baumWelch"))
+            return new Operation() {
+                public void run(int i) {
+                    lModel.baumWelch(pIterations, lViews[i], lWorkspace);
+                }
+            };
+        if (pOperation.equals("forward"))
+            return new Operation() {
+                public void run(int i) {
+                    lModel.logLikelihood(lViews[i], lWorkspace);
+                }
+            };
+        if (pOperation.equals("backward"))
+            return new Operation() {
+                public void run(int i) {
+                    lModel.backward(lViews[i], lWorkspace);
+                }
+            };
+        if (pOperation.equals("predictNextEmissions"))
+            return new Operation() {
+                public void run(int i) {
+                    lModel.predictNextEmissions(lModel.getFinalStateProbs());
+                }
+            };
+        if (pOperation.equals("viterbi")) {
+            final int[] lPath = new int[pSequences[0].length];
+            return new Operation() {
+                public void run(int i) {
+                    lModel.viterbi(lViews[i], lWorkspace, lPath);
+                }
+            };
+        }
+        return new Operation() {
+            public void run(int i) {
+                lModel.getSequenceProbability(lViews[i], lWorkspace);
+            }
+        };
+    }
+
+    // /the original HMM, which has no workspace and keeps forward and backward private
+    private static Operation referenceOperation(String pOperation, int pStates, final int pIterations,
+                                                final int[][] pSequences) {
+        final HMM lModel = new HMM(pStates, Constants.COUNT_MOVE);
+        lModel.baumWelch(1, pSequences[0]);
+
+        if (pOperation.equals("baumWelch"))
+            return new Operation() {
+                public void run(int i) {
+                    lModel.baumWelch(pIterations, pSequences[i]);
+                }
+            };
+        if (pOperation.equals("predictNextEmissions"))
+            return new Operation() {
+                public void run(int i) {
+                    lModel.predictNextEmissions(pSequences[i]);
+                }
+            };
+        if (pOperation.equals("getSequenceProbability"))
+            return new Operation() {
+                public void run(int i) {
+                    lModel.getSequenceProbability(pSequences[i]);
+                }
+            };
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // /every bird's actions in an environment file of either format
+    static int[][] loadSequences(String pFilename) throws IOException {
+        Environment lEnvironment = Environment.load(pFilename);
+        List<int[]> lBirds = new ArrayList<int[]>();
+        for (int r = 0; r < lEnvironment.getNumRounds(); ++r) {
+            for (int b = 0; b < lEnvironment.getNumBirds(r); ++b) {
+                int[] lActions = new int[lEnvironment.getNumTurns()];
+                for (int i = 0; i < lActions.length; ++i)
+                    lActions[i] = lEnvironment.getAction(r, b, i);
+                lBirds.add(lActions);
+            }
+        }
+        return lBirds.toArray(new int[lBirds.size()][]);
+    }
+
+    // /the first pTurns actions of every bird that is still alive after them
+    private static int[][] longerThan(int[][] pBirds, int pTurns) {
+        List<int[]> lSequences = new ArrayList<int[]>();
+        for (int[] lBird : pBirds) {
+            if (pTurns > lBird.length)
+                continue;
+            int[] lSequence = Arrays.copyOf(lBird, pTurns);
+            boolean lAlive = true;
+            for (int lAction : lSequence)
+                lAlive &= lAction != Constants.MOVE_DEAD;
+            if (lAlive)
+                lSequences.add(lSequence);
+        }
+        return lSequences.toArray(new int[lSequences.size()][]);
+    }
+
+    private static int[] parseInts(String pList) {
+        String[] lParts = pList.split(",");
+        int[] lValues = new int[lParts.length];
+        for (int i = 0; i < lParts.length; i++)
+            lValues[i] = Integer.parseInt(lParts[i].trim());
+        return lValues;
+    }
+}
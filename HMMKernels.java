@@ -0,0 +1,47 @@
+/**
+ * The vector loops the HMM engines spend their time in.
+ *
+ * The scalar implementation is always available and used by default. The
+ * implementation on the JDK Vector API is only picked with
+ * -Dhmm.kernels=vector, when the classes in vector/ have been compiled and
+ * the JVM runs with --add-modules jdk.incubator.vector. It is slower on the
+ * five state models of Player, whose rows are shorter than one vector, and
+ * only pulls ahead from about 16 states.
+ */
+abstract class HMMKernels {
+    static final HMMKernels INSTANCE = select();
+
+    private static HMMKernels select() {
+        if ("vector".equals(System.getProperty("hmm.kernels"))) {
+            try {
+                return (HMMKernels) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+            } catch (Exception | LinkageError e) {
+                // Not compiled, or the incubator module is not present
+            }
+        }
+        return new ScalarKernels();
+    }
+
+    // /name shown by benchmarks
+    abstract String name();
+
+    // /y += w * x
+    abstract void axpy(double w, double[] x, int xOffset, double[] y, int yOffset, int n);
+
+    // /y += w * x .* z
+    abstract void axpyMul(double w, double[] x, int xOffset, double[] z, int zOffset,
+                          double[] y, int yOffset, int n);
+
+    // /sum of x .* y
+    abstract double dot(double[] x, int xOffset, double[] y, int yOffset, int n);
+
+    // /dst = x .* y, returns the sum of dst. dst may be x or y.
+    abstract double multiply(double[] x, int xOffset, double[] y, int yOffset,
+                             double[] dst, int dstOffset, int n);
+
+    // /v /= d
+    abstract void divide(double[] v, int offset, int n, double d);
+
+    // /sum of v
+    abstract double sum(double[] v, int offset, int n);
+}
@@ -0,0 +1,74 @@
+/**
+ * Scratch buffers for training and evaluating {@link FlatHMM}s.
+ *
+ * A workspace is sized for a state count, an emission count and a maximum
+ * sequence length and is lent to a model for the duration of a call, so one
+ * instance can be reused across iterations and across birds. It only reallocates when it is asked to
+ * hold a larger model or a longer sequence than it has seen before.
+ * Not thread safe, use one workspace per thread.
+ */
+public class HMMWorkspace {
+    // /Longest sequence a bird can produce, one observation per turn (GameServer.mMaxTurns)
+    public static final int MAX_TURNS = 100;
+
+    int states;
+    int emissions;
+    int turns;
+
+    // Per time step passes, T x N
+    double[] alpha;
+    double[] alphaScale;
+    double[] beta;
+    double[] betaScale;
+
+    // Re-estimation accumulators, independent of T
+    double[] gamma;
+    double[] weighted;
+    double[] xiSum;
+    double[] gammaSum;
+    double[] emissionSum;
+
+    // Viterbi: the model in log space, two rows of delta and the T x N back pointers
+    double[] logA;
+    double[] logBT;
+    double[] delta;
+    int[] psi;
+
+    public HMMWorkspace(int states) {
+        this(states, Constants.COUNT_MOVE, MAX_TURNS);
+    }
+
+    public HMMWorkspace(int states, int emissions, int turns) {
+        allocate(states, emissions, turns);
+    }
+
+    /**
+     * Makes sure the buffers can hold a model with the given number of states
+     * and emissions over a sequence of the given length.
+     */
+    void ensureCapacity(int states, int emissions, int turns) {
+        if (states > this.states || emissions > this.emissions || turns > this.turns) {
+            allocate(Math.max(states, this.states), Math.max(emissions, this.emissions),
+                    Math.max(turns, this.turns));
+        }
+    }
+
+    private void allocate(int states, int emissions, int turns) {
+        this.states = states;
+        this.emissions = emissions;
+        this.turns = turns;
+        alpha = new double[turns * states];
+        alphaScale = new double[turns];
+        beta = new double[turns * states];
+        betaScale = new double[turns];
+        gamma = new double[states];
+        weighted = new double[states];
+        xiSum = new double[states * states];
+        gammaSum = new double[states];
+        emissionSum = new double[emissions * states];
+        logA = new double[states * states];
+        logBT = new double[emissions * states];
+        delta = new double[2 * states];
+        psi = new int[turns * states];
+    }
+}
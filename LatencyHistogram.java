@@ -0,0 +1,76 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Latencies of repeated calls, printed as power of two buckets together
+ * with exact percentiles.
+ *
+ * Not thread safe.
+ */
+class LatencyHistogram {
+    // Bucket i holds latencies in [2^i, 2^(i+1)) microseconds, bucket 0 also those below
+    private static final int BUCKETS = 32;
+    private static final int BAR_WIDTH = 40;
+
+    private final String mName;
+    private final long[] mBuckets = new long[BUCKETS];
+    private long[] mSamples = new long[256];
+    private int mCount;
+    private boolean mSorted = true;
+
+    public LatencyHistogram(String pName) {
+        mName = pName;
+    }
+
+    // /records one call that took pNanos nanoseconds
+    public void record(long pNanos) {
+        if (mCount == mSamples.length)
+            mSamples = Arrays.copyOf(mSamples, 2 * mSamples.length);
+        mSamples[mCount++] = pNanos;
+        mSorted = false;
+
+        long lMicros = pNanos / 1000;
+        int lBucket = lMicros <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(lMicros);
+        mBuckets[Math.min(lBucket, BUCKETS - 1)]++;
+    }
+
+    // /adds every call recorded by pOther
+    public void add(LatencyHistogram pOther) {
+        for (int i = 0; i < pOther.mCount; i++)
+            record(pOther.mSamples[i]);
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    // /the latency in nanoseconds that a fraction pQuantile of the calls did not exceed
+    public long percentile(double pQuantile) {
+        if (mCount == 0)
+            return 0;
+        if (!mSorted) {
+            Arrays.sort(mSamples, 0, mCount);
+            mSorted = true;
+        }
+        int lIndex = (int) Math.ceil(pQuantile * mCount) - 1;
+        return mSamples[Math.max(0, Math.min(lIndex, mCount - 1))];
+    }
+
+    public void print(PrintStream pOut) {
+        pOut.println(String.format("%s: %d calls, p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms",
+                mName, mCount, percentile(0.5) / 1e6, percentile(0.9) / 1e6,
+                percentile(0.99) / 1e6, percentile(1) / 1e6));
+
+        long lMax = 0;
+        for (long lBucket : mBuckets)
+            lMax = Math.max(lMax, lBucket);
+        for (int i = 0; i < BUCKETS; i++) {
+            if (mBuckets[i] == 0)
+                continue;
+            StringBuilder lBar = new StringBuilder();
+            for (long j = (mBuckets[i] * BAR_WIDTH + lMax - 1) / lMax; j > 0; j--)
+                lBar.append('#');
+            pOut.println(String.format("  < %8d us %7d %s", 2L << i, mBuckets[i], lBar));
+        }
+    }
+}
@@ -0,0 +1,186 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * One game between a GameServer and a Client with a Player in the same JVM.
+ *
+ * The two talk the usual text protocol over pipes, the server on the calling
+ * thread and the client on a thread of its own, so a game costs what it
+ * costs over real pipes minus the process boundary. The time the player
+ * spends in every SHOOT and GUESS is recorded in the given histograms.
+ * A game may have several players, each with a client thread of its own.
+ */
+class LocalGame {
+    private final int mThreads;
+    private final long mSafetyMargin;
+    private final Random mRandom;
+    private final PrintStream mLog;
+    private final LatencyHistogram mShootLatency;
+    private final LatencyHistogram mGuessLatency;
+
+    /**
+     * The player is created with pThreads training threads and a safety
+     * margin of pSafetyMargin milliseconds, see Player.
+     */
+    public LocalGame(int pThreads, long pSafetyMargin,
+                     LatencyHistogram pShootLatency, LatencyHistogram pGuessLatency) {
+        this(pThreads, pSafetyMargin, new Random(), System.err, pShootLatency, pGuessLatency);
+    }
+
+    /**
+     * As above, with the player's models initialized from pRandom and every
+     * message of the server, client and player written to pLog instead of
+     * System.err.
+     */
+    public LocalGame(int pThreads, long pSafetyMargin, Random pRandom, PrintStream pLog,
+                     LatencyHistogram pShootLatency, LatencyHistogram pGuessLatency) {
+        mThreads = pThreads;
+        mSafetyMargin = pSafetyMargin;
+        mRandom = pRandom;
+        mLog = pLog;
+        mShootLatency = pShootLatency;
+        mGuessLatency = pGuessLatency;
+    }
+
+    // /plays an environment in the text format
+    public int play(Readable pEnvironment) throws Exception {
+        return play(Environment.readText(pEnvironment, Environment.TEXT_TURNS));
+    }
+
+    /**
+     * Plays the environment with a new player and returns the player's final
+     * score. Throws whatever the client threw.
+     */
+    public int play(Environment pEnvironment) throws Exception {
+        return play(pEnvironment, 1)[0];
+    }
+
+    /**
+     * Plays the environment with pPlayers new players, taking turns shooting
+     * and guessing at the same time, and returns their final scores. Throws
+     * whatever the first failing client threw.
+     */
+    public int[] play(Environment pEnvironment, int pPlayers) throws Exception {
+        GameServer lServer = new GameServer(mLog, false);
+        lServer.load(pEnvironment);
+
+        OutputStream[] lToClient = new OutputStream[pPlayers];
+        TimedPlayer[] lPlayers = new TimedPlayer[pPlayers];
+        Thread[] lClientThreads = new Thread[pPlayers];
+        final Exception[] lClientErrors = new Exception[pPlayers];
+        for (int i = 0; i < pPlayers; i++) {
+            // Unlike piped streams, these do not break when the writing thread ends
+            Pipe lClientPipe = Pipe.open();
+            lToClient[i] = Channels.newOutputStream(lClientPipe.sink());
+            InputStream lClientIn = Channels.newInputStream(lClientPipe.source());
+            Pipe lServerPipe = Pipe.open();
+            final OutputStream lToServer = Channels.newOutputStream(lServerPipe.sink());
+            InputStream lServerIn = Channels.newInputStream(lServerPipe.source());
+            lServer.addPlayer(new BufferedReader(new InputStreamReader(lServerIn)), lToClient[i]);
+
+            lPlayers[i] = new TimedPlayer(mThreads, mSafetyMargin, mRandom, mLog,
+                    mShootLatency, mGuessLatency);
+            final Client lClient = new Client(lPlayers[i], lClientIn, lToServer, mLog, false);
+            final int lIndex = i;
+            lClientThreads[i] = new Thread("client-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        lClient.run();
+                    } catch (Exception e) {
+                        lClientErrors[lIndex] = e;
+                    } finally {
+                        close(lToServer);
+                    }
+                }
+            };
+        }
+
+        for (Thread lThread : lClientThreads)
+            lThread.start();
+        try {
+            lServer.run();
+        } finally {
+            // The clients stop reading at the end of the stream
+            for (int i = 0; i < pPlayers; i++) {
+                close(lToClient[i]);
+                lClientThreads[i].join();
+                lPlayers[i].shutdown();
+            }
+        }
+
+        int[] lScores = new int[pPlayers];
+        for (int i = 0; i < pPlayers; i++) {
+            if (lClientErrors[i] != null)
+                throw lClientErrors[i];
+            lScores[i] = lServer.getScore(i);
+        }
+        return lScores;
+    }
+
+    // /the names of the *.in environment files in pDirectory, sorted
+    public static String[] listEnvironments(File pDirectory) {
+        String[] lFiles = pDirectory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File pDir, String pName) {
+                return pName.endsWith(".in");
+            }
+        });
+        if (lFiles == null)
+            return new String[0];
+        Arrays.sort(lFiles);
+        return lFiles;
+    }
+
+    private static void close(OutputStream pStream) {
+        try {
+            pStream.close();
+        } catch (IOException e) {
+            // Nothing left to tell the other side
+        }
+    }
+
+    // /a player that records how long every decision takes
+    private static class TimedPlayer extends Player {
+        private final LatencyHistogram mShootLatency;
+        private final LatencyHistogram mGuessLatency;
+
+        TimedPlayer(int pThreads, long pSafetyMargin, Random pRandom, PrintStream pLog,
+                    LatencyHistogram pShootLatency, LatencyHistogram pGuessLatency) {
+            super(pThreads, pSafetyMargin, pRandom, pLog);
+            mShootLatency = pShootLatency;
+            mGuessLatency = pGuessLatency;
+        }
+
+        @Override
+        public Action shoot(GameState pState, Deadline pDue) {
+            long lStart = System.nanoTime();
+            Action lAction = super.shoot(pState, pDue);
+            synchronized (mShootLatency) {
+                mShootLatency.record(System.nanoTime() - lStart);
+            }
+            return lAction;
+        }
+
+        @Override
+        public int[] guess(GameState pState, Deadline pDue) {
+            long lStart = System.nanoTime();
+            int[] lGuess = super.guess(pState, pDue);
+            // Several players of a game guess at the same time
+            synchronized (mGuessLatency) {
+                mGuessLatency.record(System.nanoTime() - lStart);
+            }
+            return lGuess;
+        }
+    }
+}
@@ -1,13 +1,23 @@
 import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 public class Main
 {
 
-    public static boolean gVerbose = false;
-
     /**
      * @param args
      * @throws IOException
@@ -15,7 +25,21 @@ public class Main
     public static void main(String[] args) throws Exception {
         // Parse parameters
         boolean lCreateServer = false;
+        boolean lVerbose = false;
+        boolean lTournament = false;
         String lLoadFilename = "SouthEmissions.in";
+        String lConvertFilename = null;
+        String lStoreFilename = null;
+        List<String> lEnvironments = new ArrayList<String>();
+        int lThreads = Runtime.getRuntime().availableProcessors();
+        boolean lThreadsGiven = false;
+        long lSafetyMargin = Player.DEFAULT_SAFETY_MARGIN;
+        int lGames = 10;
+        long lSeed = 1;
+        int lWorkers = Runtime.getRuntime().availableProcessors();
+        String lListenAddress = null;
+        String lConnectAddress = null;
+        int lPlayers = 1;
 
         for (int i = 0; i < args.length; ++i) {
             String param = args[i];
@@ -23,16 +47,88 @@ public class Main
             if (param.equals("server") || param.equals("s")) {
                 lCreateServer = true;
             } else if (param.equals("verbose") || param.equals("v")) {
-                gVerbose = true;
+                lVerbose = true;
+            } else if (param.equals("tournament")) {
+                lTournament = true;
             } else if (param.equals("load") || param.equals("l")) {
                 ++i;
                 if (i < args.length)
+                {
                     lLoadFilename = args[i];
+                    lEnvironments.add(args[i]);
+                }
                 else
                 {
                     System.err.println("Observations file must be given as an argument");
                     System.exit(-1);
                 }
+            } else if (param.equals("convert") || param.equals("c")) {
+                ++i;
+                if (i < args.length)
+                    lConvertFilename = args[i];
+                else
+                {
+                    System.err.println("Binary environment file must be given as an argument");
+                    System.exit(-1);
+                }
+            } else if (param.equals("store")) {
+                ++i;
+                if (i < args.length)
+                    lStoreFilename = args[i];
+                else
+                {
+                    System.err.println("Species snapshot file must be given as an argument");
+                    System.exit(-1);
+                }
+            } else if (param.equals("threads") || param.equals("t")) {
+                ++i;
+                if (i < args.length)
+                {
+                    lThreads = Integer.parseInt(args[i]);
+                    lThreadsGiven = true;
+                }
+                else
+                {
+                    System.err.println("Number of threads must be given as an argument");
+                    System.exit(-1);
+                }
+            } else if (param.equals("margin") || param.equals("m")) {
+                ++i;
+                if (i < args.length)
+                    lSafetyMargin = Long.parseLong(args[i]);
+                else
+                {
+                    System.err.println("Safety margin in milliseconds must be given as an argument");
+                    System.exit(-1);
+                }
+            } else if (param.equals("listen") || param.equals("connect")) {
+                ++i;
+                if (i == args.length)
+                {
+                    System.err.println("An address (port, host:port or unix:path) must be given as an argument to '"
+                            + param + "'");
+                    System.exit(-1);
+                }
+                if (param.equals("listen"))
+                    lListenAddress = args[i];
+                else
+                    lConnectAddress = args[i];
+            } else if (param.equals("games") || param.equals("seed") || param.equals("workers")
+                    || param.equals("players")) {
+                ++i;
+                if (i == args.length)
+                {
+                    System.err.println("A number must be given as an argument to '" + param + "'");
+                    System.exit(-1);
+                }
+                if (param.equals("games"))
+                    lGames = Integer.parseInt(args[i]);
+                else if (param.equals("seed"))
+                    lSeed = Long.parseLong(args[i]);
+                else if (param.equals("players"))
+                    lPlayers = Integer.parseInt(args[i]);
+                else
+                    lWorkers = Integer.parseInt(args[i]);
             } else {
                 System.err.println("Unknown parameter: '" + args[i] + "'");
                 System.exit(-1);
@@ -40,20 +136,45 @@ public class Main
         }
 
         /**
-         * Start the program either as a server or a client
+         * Start the program either as a converter, a tournament, a server or a client
          */
-        if (lCreateServer)
+        if (lConvertFilename != null)
+        {
+            // Write the loaded environment in the binary format
+            Environment.load(lLoadFilename).write(Paths.get(lConvertFilename));
+        }
+        else if (lTournament)
+        {
+            // Every environment given with load, or all of them
+            if (lEnvironments.isEmpty())
+                lEnvironments.addAll(Arrays.asList(LocalGame.listEnvironments(new File("."))));
+
+            // The games already keep every core busy, so each player trains on one thread
+            Tournament lTournamentRunner = new Tournament(lEnvironments, lGames, lSeed, lWorkers,
+                    lThreadsGiven ? lThreads : 1, lSafetyMargin);
+            lTournamentRunner.run(System.out);
+        }
+        else if (lCreateServer && lListenAddress != null)
+        {
+            // Host games for every lPlayers clients that connect
+            if (lVerbose)
+                System.err.println("Loading '" + lLoadFilename + "'");
+            SocketServer lSocketServer = new SocketServer(Environment.load(lLoadFilename), lPlayers,
+                    System.err, lVerbose);
+            lSocketServer.serve(SocketServer.parseAddress(lListenAddress));
+        }
+        else if (lCreateServer)
         {
             // Create a server
             GameServer lGameServer = new GameServer(
                     new BufferedReader(new InputStreamReader(System.in)),
-                    System.out);
+                    new FileOutputStream(FileDescriptor.out), System.err, lVerbose);
 
             if (lLoadFilename != null)
             {
-                if (gVerbose)
+                if (lVerbose)
                     System.err.println("Loading '" + lLoadFilename + "'");
-                lGameServer.load(new FileReader(lLoadFilename));
+                lGameServer.load(Environment.load(lLoadFilename));
             }
 
             // Run the server
@@ -61,17 +182,33 @@ public class Main
         }
         else
         {
-            // Create the player
-            Player lPlayer = new Player();
+            // Create the player, starting from the species models of earlier games if stored
+            Player lPlayer = new Player(lThreads, lSafetyMargin, new Random(), System.err,
+                    lStoreFilename == null ? null : Paths.get(lStoreFilename));
 
-            // Create a client with the player
-            Client lClient = new Client(
-                    lPlayer,
-                    new BufferedReader(new InputStreamReader(System.in)),
-                    System.out);
+            // Create a client with the player, on a socket or on stdin and stdout
+            InputStream lInput = new FileInputStream(FileDescriptor.in);
+            OutputStream lOutput = new FileOutputStream(FileDescriptor.out);
+            SocketChannel lSocket = null;
+            if (lConnectAddress != null)
+            {
+                lSocket = SocketServer.connect(SocketServer.parseAddress(lConnectAddress));
+                lInput = Channels.newInputStream(lSocket);
+                lOutput = Channels.newOutputStream(lSocket);
+            }
+            Client lClient = new Client(lPlayer, lInput, lOutput, System.err, lVerbose);
 
             // Run the client
-            lClient.run();
+            try
+            {
+                lClient.run();
+            }
+            finally
+            {
+                lPlayer.shutdown();
+                if (lSocket != null)
+                    lSocket.close();
+            }
         }
     }
 }
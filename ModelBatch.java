@@ -0,0 +1,125 @@
+import java.util.Arrays;
+
+/**
+ * A set of models with the same number of states and emissions, packed
+ * side by side so that a sequence is scored against all of them in one
+ * forward pass.
+ *
+ * With K models of N states, the parameters are laid out structure of
+ * arrays style:
+ *   a[k * N * N + i * N + j] = A_k(i, j)
+ *   bT[o * K * N + k * N + i] = B_k(i, o)
+ *   pi[k * N + i]            = pi_k(i)
+ * so the alphas of all models live in one K * N vector, and weighting them
+ * by the emission probabilities of an observation is a single contiguous
+ * K * N kernel call.
+ *
+ * Not thread safe, the scratch vectors are shared between calls.
+ */
+class ModelBatch {
+    private static final HMMKernels KERNELS = HMMKernels.INSTANCE;
+
+    private final int K;
+    private final int N;
+    private final int M;
+    // Position of each packed model in the array it was built from
+    private final int[] index;
+    private final int size;
+
+    private final double[] a;
+    private final double[] bT;
+    private final double[] pi;
+
+    private final double[] alpha;
+    private final double[] next;
+
+    /**
+     * Packs the non-null models. They must all have the same number of states
+     * and emissions.
+     */
+    public ModelBatch(FlatHMM[] models) {
+        size = models.length;
+        int count = 0;
+        int states = 0;
+        int emissions = 0;
+        for (FlatHMM model : models) {
+            if (model == null)
+                continue;
+            if (count > 0 && (model.getNumStates() != states || model.getNumEmissions() != emissions))
+                throw new IllegalArgumentException("All models in a batch must have the same shape");
+            states = model.getNumStates();
+            emissions = model.getNumEmissions();
+            count++;
+        }
+        K = count;
+        N = states;
+        M = emissions;
+
+        index = new int[K];
+        a = new double[K * N * N];
+        bT = new double[M * K * N];
+        pi = new double[K * N];
+        alpha = new double[K * N];
+        next = new double[K * N];
+
+        int k = 0;
+        for (int m = 0; m < models.length; m++) {
+            if (models[m] == null)
+                continue;
+            index[k] = m;
+            System.arraycopy(models[m].transitions(), 0, a, k * N * N, N * N);
+            System.arraycopy(models[m].initialProbs(), 0, pi, k * N, N);
+            double[] modelB = models[m].emissionsByObservation();
+            for (int o = 0; o < M; o++) {
+                System.arraycopy(modelB, o * N, bT, o * K * N + k * N, N);
+            }
+            k++;
+        }
+    }
+
+    /**
+     * scores[m] is the log-likelihood of the sequence under the m-th model the
+     * batch was built from, or negative infinity where that model was null.
+     */
+    public void logLikelihoods(SequenceView sequence, double[] scores) {
+        for (int m = 0; m < size; m++) {
+            scores[m] = Double.NEGATIVE_INFINITY;
+        }
+        if (K == 0)
+            return;
+        for (int k = 0; k < K; k++) {
+            scores[index[k]] = 0;
+        }
+
+        int KN = K * N;
+        int[] obs = sequence.data;
+        int base = sequence.offset;
+        for (int t = 0; t < sequence.length; t++) {
+            int col = obs[base + t] * KN;
+            if (t == 0) {
+                KERNELS.multiply(pi, 0, bT, col, alpha, 0, KN);
+            } else {
+                // next_k = alpha_k * A_k, for every model
+                Arrays.fill(next, 0);
+                for (int k = 0; k < K; k++) {
+                    int block = k * N;
+                    int matrix = k * N * N;
+                    for (int j = 0; j < N; j++) {
+                        KERNELS.axpy(alpha[block + j], a, matrix + j * N, next, block, N);
+                    }
+                }
+
+                // Emission weighting of all models at once
+                KERNELS.multiply(next, 0, bT, col, alpha, 0, KN);
+            }
+
+            // Normalize each model's block and keep its scaling coefficient
+            for (int k = 0; k < K; k++) {
+                int block = k * N;
+                double c = KERNELS.sum(alpha, block, N);
+                KERNELS.divide(alpha, block, N, c);
+                scores[index[k]] += Math.log(c);
+            }
+        }
+    }
+}
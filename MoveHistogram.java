@@ -0,0 +1,62 @@
+/**
+ * Counts of a bird's moves and of pairs of consecutive moves, kept up to
+ * date one observation at a time like ForwardFilter.
+ *
+ * Much cheaper than any model of the bird, it tells birds whose next move
+ * could be guessed from their habits alone from birds that move all over
+ * the place, which are not worth training a model for yet.
+ */
+class MoveHistogram {
+    private final int[] moves = new int[Constants.COUNT_MOVE];
+    // pairs[a * COUNT_MOVE + b] is how often move b followed move a
+    private final int[] pairs = new int[Constants.COUNT_MOVE * Constants.COUNT_MOVE];
+    private int length;
+    private int last = -1;
+
+    // /number of observations counted so far
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Counts the bird's observations that have not been counted yet,
+     * stopping at the first MOVE_DEAD.
+     */
+    public void advance(Bird bird) {
+        while (length < bird.getAliveLength()) {
+            int move = bird.getObservation(length);
+            moves[move]++;
+            if (last >= 0)
+                pairs[last * Constants.COUNT_MOVE + move]++;
+            last = move;
+            length++;
+        }
+    }
+
+    /**
+     * How often the bird's next move would have been guessed right so far,
+     * guessing either its most frequent move, or the move that most often
+     * followed its previous one, whichever rule did better: a rough
+     * probability of guessing its next move. Zero before any move.
+     */
+    public double getPredictability() {
+        if (length == 0)
+            return 0;
+        int mostMoves = 0;
+        for (int count : moves)
+            mostMoves = Math.max(mostMoves, count);
+        double best = (double) mostMoves / length;
+
+        if (length > 1) {
+            int hits = 0;
+            for (int a = 0; a < Constants.COUNT_MOVE; a++) {
+                int mostFollowers = 0;
+                for (int b = 0; b < Constants.COUNT_MOVE; b++)
+                    mostFollowers = Math.max(mostFollowers, pairs[a * Constants.COUNT_MOVE + b]);
+                hits += mostFollowers;
+            }
+            best = Math.max(best, (double) hits / (length - 1));
+        }
+        return best;
+    }
+}
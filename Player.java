@@ -1,17 +1,117 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 
 class Player {
     private static final int STATES = 5;
     public static final int ITERATIONS = 30;
-    private List<HMM> hmms = new ArrayList<HMM>();
-    private HMM[] speciesHMMs = new HMM[Constants.COUNT_SPECIES];
+    // Warm started training stops once an iteration gains less log-likelihood than this
+    public static final double CONVERGENCE_THRESHOLD = 1e-2;
+    // Birds are trained this many Baum-Welch iterations at a time between deadline checks
+    public static final int SLICE = 5;
+    // Stop training when less than this many milliseconds are left before the deadline
+    public static final long DEFAULT_SAFETY_MARGIN = 100;
+    // Birds are only shot, and so only modelled, once they have made this many moves
+    private static final int FIRST_SHOOTING_TURN = 50;
+    // Only shoot when the predicted move is at least this probable
+    private static final double SHOOT_THRESHOLD = 0.7;
+    // ... and the bird has settled in its flight mode at least this much, see BirdModel.getModeStability
+    private static final double MIN_MODE_STABILITY = 0.8;
+    // Birds whose moves are less predictable than this from their move counts are not modelled
+    // yet, see MoveHistogram.getPredictability
+    private static final double MIN_PREDICTABILITY = 0.7;
+    private BirdModel[] birds;
+    // Species models, refitted in the background after every reveal
+    private final SpeciesLibrary library = new SpeciesLibrary(Constants.COUNT_SPECIES, STATES, Constants.COUNT_MOVE);
+    private Future<?> libraryUpdate;
+    // The library's models as of speciesVersion, and the same packed for guessing
+    private FlatHMM[] speciesHMMs = new FlatHMM[Constants.COUNT_SPECIES];
+    private ModelBatch speciesBatch = new ModelBatch(speciesHMMs);
+    private int speciesVersion;
+    // Where species models are kept between games, or null
+    private final Path storePath;
+    // The snapshot of storePath, until its models are first needed
+    private SpeciesStore store;
+    // Birds are trained concurrently, each pool thread reuses its own workspace
+    private final ForkJoinPool pool;
+    private final ThreadLocal<HMMWorkspace> workspaces = new ThreadLocal<HMMWorkspace>() {
+        @Override
+        protected HMMWorkspace initialValue() {
+            return new HMMWorkspace(STATES);
+        }
+    };
+    private final long safetyMargin;
+    // Initial parameters of new bird models
+    private final Random random;
+    private final PrintStream log;
+    // Per bird filters over every species model, advanced only by the turns
+    // that are new since the last call
+    private ForwardFilter[][] speciesFilters;
+    // Per bird move counts, the first screen of shoot
+    private MoveHistogram[] histograms;
+    // Where shoot makes its predictions, it is only ever called on one thread
+    private final ForwardFilter shootFilter = new ForwardFilter(STATES);
+    private final double[] nextProbs = new double[Constants.COUNT_MOVE];
     int round = -1;
+    // Changes with every round, background training of older rounds stops when it sees it
+    private volatile int generation;
     // /constructor
 
     // /There is no data in the beginning, so not much should be done here.
     public Player() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    // /parallelism is the number of birds that are trained at the same time
+    public Player(int parallelism) {
+        this(parallelism, DEFAULT_SAFETY_MARGIN);
+    }
+
+    // /safetyMargin is how many milliseconds before a deadline we stop working
+    public Player(int parallelism, long safetyMargin) {
+        this(parallelism, safetyMargin, new Random(), System.err);
+    }
+
+    // /new models are initialized from random, hits are reported to log
+    public Player(int parallelism, long safetyMargin, Random random, PrintStream log) {
+        this(parallelism, safetyMargin, random, log, null);
+    }
+
+    /**
+     * Species models are read from the snapshot at storePath, if there is
+     * one, and saved to it at the end of the game. The snapshot is only
+     * mapped here, the models are decoded when the first round starts.
+     */
+    public Player(int parallelism, long safetyMargin, Random random, PrintStream log, Path storePath) {
+        pool = new ForkJoinPool(parallelism);
+        this.safetyMargin = safetyMargin;
+        this.random = random;
+        this.log = log;
+        this.storePath = storePath;
+        if (storePath != null && Files.exists(storePath)) {
+            try {
+                store = SpeciesStore.map(storePath);
+            } catch (IOException e) {
+                // Start from scratch, the snapshot is replaced at the end of the game
+                log.println("Ignoring species snapshot " + storePath + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // /stops the training threads once the game is over
+    public void shutdown() {
+        pool.shutdown();
     }
 
     /**
@@ -30,43 +130,56 @@ class Player {
      * @return the prediction of a bird we want to shoot at, or cDontShoot to pass
      */
     public Action shoot(GameState pState, Deadline pDue) {
-        if (pState.getRound() != round) {
-            round = pState.getRound();
-            hmms.clear();
-        }
+        startRound(pState);
 
         int sequenceLength = pState.getBird(0).getSeqLength();
-        if (sequenceLength < 50)
+        if (sequenceLength < FIRST_SHOOTING_TURN)
             return cDontShoot;
-        /*
-         * Here you should write your clever algorithms to get the best action.
-         * This skeleton never shoots.
-         */
-        if (hmms.size() == 0) {
-            for (int i = 0; i < pState.getNumBirds(); i++) {
-                hmms.add(new HMM(STATES, Constants.COUNT_MOVE));
+
+        // Birds that are safe to shoot. Those still being trained in the
+        // background are left alone and read as they are, the others are
+        // trained here, most promising first.
+        List<BirdModel> candidates = new ArrayList<BirdModel>();
+        List<BirdModel> acquired = new ArrayList<BirdModel>();
+        for (int i = 0; i < birds.length; i++) {
+            BirdModel model = getSafeModel(pState, i);
+            if (model == null)
+                continue;
+            candidates.add(model);
+            model.offer(getSequence(pState.getBird(i)));
+            if (model.tryAcquire()) {
+                model.beginPending();
+                acquired.add(model);
+            }
+        }
+        Collections.sort(acquired, new Comparator<BirdModel>() {
+            @Override
+            public int compare(BirdModel a, BirdModel b) {
+                return Double.compare(b.priority, a.priority);
             }
+        });
+
+        try {
+            train(acquired, pDue);
+        } finally {
+            for (BirdModel model : acquired)
+                model.release();
         }
 
+        // Pick the best prediction among whatever got trained in time
         int birdToShoot = -1;
         int nextTargetBirdMove = -1;
-        double bestProbability = 0.7;
-        for (int i = 0; i < hmms.size(); i++) {
-            if (pState.getBird(i).isDead())
-                continue;
-            int[] sequence = getSequence(pState.getBird(i));
-            if (speciesHMMs[Constants.SPECIES_BLACK_STORK] != null &&
-                    speciesHMMs[Constants.SPECIES_BLACK_STORK].getSequenceProbability(sequence) > 0.8) {
+        double bestProbability = SHOOT_THRESHOLD;
+        for (BirdModel model : candidates) {
+            if (!model.isTrained() || model.getModeStability() < MIN_MODE_STABILITY)
                 continue;
-            }
-            HMM hmm = new HMM(STATES, Constants.COUNT_MOVE);
-            hmm.baumWelch(ITERATIONS, sequence);
-            hmms.set(i, hmm);
-            double[] nextProbs = hmm.predictNextEmissions(sequence);
-            int mostProbable = hmm.getMostProbableObservation(nextProbs);
+            model.predictNextEmissions(pState.getBird(model.bird), shootFilter, nextProbs);
+            int mostProbable = mostProbable(nextProbs);
             double prob = nextProbs[mostProbable];
+            model.priority = prob;
             if (prob > bestProbability) {
-                birdToShoot = i;
+                bestProbability = prob;
+                birdToShoot = model.bird;
                 nextTargetBirdMove = mostProbable;
             }
         }
@@ -78,22 +191,211 @@ class Player {
         }
     }
 
-    private int[] getSequence (Bird bird) {
-        int[] sequence = new int[bird.getSeqLength()];
-        int to = sequence.length;
+    /**
+     * Called once new moves have been added to the state, before the player
+     * is asked to shoot. Starts training the models of the birds that could
+     * be shot in the background, so the work is done by the time it is
+     * needed, or at least started. Models that are still busy with earlier
+     * moves go on with the new ones when they are done.
+     *
+     * @param pState the GameState object with observations etc
+     */
+    public void onMoves(GameState pState) {
+        startRound(pState);
+        if (pState.getBird(0).getSeqLength() < FIRST_SHOOTING_TURN)
+            return;
+
+        for (int i = 0; i < birds.length; i++) {
+            BirdModel model = getSafeModel(pState, i);
+            if (model == null)
+                continue;
+            model.offer(getSequence(pState.getBird(i)));
+            if (model.tryAcquire())
+                pool.execute(new RefineTask(model, generation));
+        }
+    }
+
+    /**
+     * The model of bird i, created if need be, or null if the bird is not
+     * worth one. Birds are screened cheapest test first: dead birds, birds
+     * whose move counts say they are hard to predict, then birds that are
+     * probably black storks by the species filters.
+     */
+    private BirdModel getSafeModel(GameState pState, int i) {
+        Bird bird = pState.getBird(i);
+        if (bird.isDead())
+            return null;
+        histograms[i].advance(bird);
+        if (histograms[i].getPredictability() < MIN_PREDICTABILITY)
+            return null;
+        if (mostLikelySpecies(pState, i) == Constants.SPECIES_BLACK_STORK)
+            return null;
+        if (birds[i] == null)
+            birds[i] = new BirdModel(i, STATES, Constants.COUNT_MOVE, SHOOT_THRESHOLD, random);
+        return birds[i];
+    }
+
+    /**
+     * Trains an acquired model on the latest moves offered to it in the
+     * background, until it has caught up or a new round starts, and
+     * releases it.
+     */
+    private class RefineTask implements Runnable {
+        private final BirdModel model;
+        private final int generation;
+
+        RefineTask(BirdModel model, int generation) {
+            this.model = model;
+            this.generation = generation;
+        }
+
+        @Override
+        public void run() {
+            do {
+                try {
+                    while (generation == Player.this.generation
+                            && (model.needsTraining() || model.beginPending())) {
+                        model.train(SLICE, workspaces.get());
+                    }
+                } finally {
+                    model.release();
+                }
+                // Moves offered after the last look but before the release
+            } while (generation == Player.this.generation && model.hasPending() && model.tryAcquire());
+        }
+    }
+
+    /**
+     * Trains the models in order, a slice at a time and as many at a time as
+     * the pool has threads, until they are all done or the deadline is within
+     * the safety margin. Birds earlier in the list are trained to the end
+     * before later ones get started.
+     */
+    private void train(List<BirdModel> models, Deadline pDue) {
+        List<BirdModel> pending = new ArrayList<BirdModel>(models);
+        while (!pending.isEmpty() && pDue.remainingMs() > safetyMargin) {
+            int wave = Math.min(pending.size(), pool.getParallelism());
+            pool.invoke(new TrainTask(pending, 0, wave));
+            for (int i = wave - 1; i >= 0; i--) {
+                if (!pending.get(i).needsTraining())
+                    pending.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Trains one slice of every model in [from, to), splitting the range
+     * until it is a single model.
+     */
+    private class TrainTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<BirdModel> models;
+        private final int from;
+        private final int to;
+
+        TrainTask(List<BirdModel> models, int from, int to) {
+            this.models = models;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                models.get(from).train(SLICE, workspaces.get());
+            } else if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TrainTask(models, from, mid), new TrainTask(models, mid, to));
+            }
+        }
+    }
+
+    private void startRound(GameState pState) {
+        if (store != null)
+            loadSpecies();
+        if (pState.getRound() != round) {
+            round = pState.getRound();
+            generation++;
+            birds = new BirdModel[pState.getNumBirds()];
+            speciesFilters = new ForwardFilter[pState.getNumBirds()][Constants.COUNT_SPECIES];
+            histograms = new MoveHistogram[pState.getNumBirds()];
+            for (int i = 0; i < histograms.length; i++)
+                histograms[i] = new MoveHistogram();
+        }
+        if (library.getVersion() != speciesVersion) {
+            // The filters follow the old models, start them over
+            speciesVersion = library.getVersion();
+            speciesHMMs = library.getModels();
+            speciesBatch = new ModelBatch(speciesHMMs);
+            speciesFilters = new ForwardFilter[pState.getNumBirds()][Constants.COUNT_SPECIES];
+        }
+    }
+
+    // /decodes the species models of the snapshot, once
+    private void loadSpecies() {
+        for (int j = 0; j < Constants.COUNT_SPECIES && j < store.getNumSpecies(); j++) {
+            FlatHMM model = store.getModel(j);
+            if (model == null || model.getNumStates() != STATES || model.getNumEmissions() != Constants.COUNT_MOVE)
+                continue;
+            library.put(j, model, store.getCounts(j));
+        }
+        store = null;
+    }
+
+    private boolean knowsAnySpecies() {
+        for (FlatHMM model : speciesHMMs) {
+            if (model != null)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * The filter of bird i under the model of species j, brought up to date
+     * with the bird's latest observations, or null if the species is unknown.
+     */
+    private ForwardFilter getSpeciesFilter(GameState pState, int i, int j) {
+        if (speciesHMMs[j] == null)
+            return null;
+        if (speciesFilters[i][j] == null)
+            speciesFilters[i][j] = new ForwardFilter(speciesHMMs[j]);
+        speciesFilters[i][j].advance(pState.getBird(i));
+        return speciesFilters[i][j];
+    }
 
-        for (int i = 0; i < sequence.length; i++) {
-            sequence[i] = bird.getObservation(i);
-            if(sequence[i] < 0) {
-                to = i;
-                break;
+    /**
+     * The species whose model explains bird i's moves best so far, or
+     * SPECIES_UNKNOWN if no species model is known yet.
+     */
+    private int mostLikelySpecies(GameState pState, int i) {
+        int probableSpecies = Constants.SPECIES_UNKNOWN;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int j = 0; j < speciesHMMs.length; j++) {
+            ForwardFilter filter = getSpeciesFilter(pState, i, j);
+            if (filter != null && filter.getLength() > 0 && filter.getLogLikelihood() > max) {
+                max = filter.getLogLikelihood();
+                probableSpecies = j;
             }
         }
+        return probableSpecies;
+    }
 
-        int from = sequence.length - 100;
-        from = from < 0 ? 0 : from;
+    // /the move with the highest of the given probabilities
+    private static int mostProbable(double[] probs) {
+        int move = 0;
+        for (int i = 1; i < probs.length; i++) {
+            if (probs[i] > probs[move])
+                move = i;
+        }
+        return move;
+    }
+
+    private SequenceView getSequence (Bird bird) {
+        int from = bird.getSeqLength() - 100;
+        from = from < 0 ? 0 : Math.min(from, bird.getAliveLength());
 
-        return Arrays.copyOfRange(sequence, from, to);
+        return bird.view(from);
     }
 
     /**
@@ -109,25 +411,34 @@ class Player {
      * @return a vector with guesses for all the birds
      */
     public int[] guess(GameState pState, Deadline pDue) {
+        startRound(pState);
+        // Nothing more is shot this round, stop training for it
+        generation++;
         int[] lGuess = new int[pState.getNumBirds()];
-        if (pState.getRound() == 0) {
+        if (pState.getRound() == 0 && !knowsAnySpecies()) {
             for (int i = 0; i < pState.getNumBirds(); ++i)
                 lGuess[i] = Constants.SPECIES_PIGEON;
         } else {
+            Arrays.fill(lGuess, Constants.SPECIES_UNKNOWN);
+            ModelBatch species = speciesBatch;
+            double[] scores = new double[speciesHMMs.length];
             for (int i = 0; i < pState.getNumBirds(); i++) {
-                int probableSpecies = -1;
-                Bird bird = pState.getBird(i);
-                double max = 0.8;
-                for (int j = 0; j < speciesHMMs.length; j++) {
-                    if (speciesHMMs[j] != null) {
-                        double prob = speciesHMMs[j].getSequenceProbability(getSequence(bird));
-                        if (prob > max) {
-                            max = prob;
-                            probableSpecies = j;
-                        }
+                // Not guessing costs nothing, so stop in time rather than risk a timeout
+                if (pDue.remainingMs() <= safetyMargin)
+                    break;
+                SequenceView sequence = getSequence(pState.getBird(i));
+                if (sequence.length() == 0)
+                    continue;
+
+                // Most likely species, scored against every known species in one pass
+                species.logLikelihoods(sequence, scores);
+                double max = Double.NEGATIVE_INFINITY;
+                for (int j = 0; j < scores.length; j++) {
+                    if (scores[j] > max) {
+                        max = scores[j];
+                        lGuess[i] = j;
                     }
                 }
-                lGuess[i] = probableSpecies;
             }
         }
         return lGuess;
@@ -142,7 +453,7 @@ class Player {
      * @param pDue time before which we must have returned
      */
     public void hit(GameState pState, int pBird, Deadline pDue) {
-        System.err.println("HIT BIRD!!!");
+        log.println("HIT BIRD!!!");
     }
 
     /**
@@ -154,14 +465,62 @@ class Player {
      * @param pDue time before which we must have returned
      */
     public void reveal(GameState pState, int[] pSpecies, Deadline pDue) {
-        if (pState.getRound() != 0)
-            return;
+        // Taken here, the birds and their models change once the next round starts
+        final int[] species = pSpecies.clone();
+        final SequenceView[] sequences = new SequenceView[pSpecies.length];
+        final FlatHMM[] seeds = new FlatHMM[pSpecies.length];
+        final boolean[] trained = new boolean[pSpecies.length];
         for (int i = 0; i < pSpecies.length; i++) {
-            if (pSpecies[i] == -1)
+            if (pSpecies[i] == Constants.SPECIES_UNKNOWN)
                 continue;
-            if (speciesHMMs[pSpecies[i]] == null) {
-                speciesHMMs[pSpecies[i]] = hmms.get(i);
+            sequences[i] = getSequence(pState.getBird(i));
+            trained[i] = birds != null && birds[i] != null && birds[i].isTrained();
+            seeds[i] = trained[i] ? birds[i].copyHMM() : new FlatHMM(STATES, Constants.COUNT_MOVE, random);
+        }
+
+        waitForLibrary();
+        libraryUpdate = pool.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < species.length; i++) {
+                    if (sequences[i] != null)
+                        library.add(species[i], sequences[i], seeds[i], trained[i] ? 0 : ITERATIONS);
+                }
+                library.reestimate();
             }
+        });
+    }
+
+    // /waits until the species models of the last reveal are published
+    private void waitForLibrary() {
+        if (libraryUpdate == null)
+            return;
+        try {
+            libraryUpdate.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.println("Failed to update species models: " + e.getCause());
+        }
+        libraryUpdate = null;
+    }
+
+    /**
+     * Called once the game is over, saves the species models if the player
+     * has a snapshot to keep them in.
+     *
+     * @param pState the GameState object with observations etc
+     */
+    public void endGame(GameState pState) {
+        if (storePath == null)
+            return;
+        if (store != null)
+            loadSpecies();
+        waitForLibrary();
+        try {
+            SpeciesStore.write(storePath, library.getModels(), library.getCounts());
+        } catch (IOException e) {
+            log.println("Failed to save species snapshot " + storePath + ": " + e.getMessage());
         }
     }
 
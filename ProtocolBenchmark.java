@@ -0,0 +1,195 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+/**
+ * Measures how fast the client reads a long session of server messages,
+ * with a player that decides instantly so that only the protocol is timed.
+ *
+ *   java ProtocolBenchmark [rounds 1000] [birds 20] [repeat 5]
+ *
+ * The session is played by Client, which reads through ProtocolReader, and
+ * by the line and StringTokenizer based reader Client used before, kept
+ * here as the baseline. Both report messages per second and bytes
+ * allocated per message.
+ */
+class ProtocolBenchmark {
+    private static final int TURNS = 100;
+
+    public static void main(String[] args) throws Exception {
+        int lRounds = 1000;
+        int lBirds = 20;
+        int lRepeat = 5;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("rounds"))
+                lRounds = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("birds"))
+                lBirds = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("repeat"))
+                lRepeat = Integer.parseInt(args[i + 1]);
+            else {
+                System.err.println("Unknown parameter: '" + args[i] + "'");
+                System.exit(-1);
+            }
+        }
+
+        int[] lMessages = new int[1];
+        byte[] lSession = session(lRounds, lBirds, lMessages);
+        System.out.println(String.format("# %d rounds of %d birds, %d messages, %d bytes",
+                lRounds, lBirds, lMessages[0], lSession.length));
+
+        PrintStream lNull = new PrintStream(OutputStream.nullOutputStream());
+        for (int r = 0; r < lRepeat; r++) {
+            QuietPlayer lPlayer = new QuietPlayer();
+            long lAllocated = allocatedBytes();
+            long lStart = System.nanoTime();
+            new Client(lPlayer, new ByteArrayInputStream(lSession), lNull).run();
+            report("client", lMessages[0], System.nanoTime() - lStart, allocatedBytes() - lAllocated);
+            lPlayer.shutdown();
+
+            lPlayer = new QuietPlayer();
+            lAllocated = allocatedBytes();
+            lStart = System.nanoTime();
+            tokenizer(lPlayer, new BufferedReader(new InputStreamReader(new ByteArrayInputStream(lSession))),
+                    lNull);
+            report("tokenizer", lMessages[0], System.nanoTime() - lStart, allocatedBytes() - lAllocated);
+            lPlayer.shutdown();
+        }
+    }
+
+    private static void report(String pName, int pMessages, long pNanos, long pAllocated) {
+        System.out.println(String.format("%-10s %12.0f messages/s %10.1f B/message",
+                pName, pMessages * 1e9 / pNanos, (double) pAllocated / pMessages));
+    }
+
+    /**
+     * What a GameServer sends a single player that never shoots a bird:
+     * every turn the moves and a SHOOT, every round a GUESS, a REVEAL and
+     * the scores.
+     */
+    private static byte[] session(int pRounds, int pBirds, int[] pMessages) {
+        ByteArrayOutputStream lBytes = new ByteArrayOutputStream();
+        PrintStream lOut = new PrintStream(lBytes);
+        Random lRandom = new Random(1);
+        int lMessages = 0;
+        lOut.println("GAME 0 1");
+        lMessages++;
+        for (int r = 0; r < pRounds; r++) {
+            lOut.println("ROUND " + r + " " + pBirds);
+            lMessages++;
+            for (int t = 1; t < TURNS; t++) {
+                lOut.println("MOVES 1");
+                for (int b = 0; b < pBirds; b++)
+                    lOut.print(lRandom.nextInt(Constants.COUNT_MOVE) + " ");
+                lOut.println();
+                lOut.println("SHOOT 2000");
+                lMessages += 2;
+            }
+            lOut.println("SCORE 0");
+            lOut.println("GUESS 10000");
+            lOut.print("REVEAL");
+            for (int b = 0; b < pBirds; b++)
+                lOut.print(" " + lRandom.nextInt(Constants.COUNT_SPECIES));
+            lOut.println(" 1000");
+            lOut.println("SCORE 0");
+            lMessages += 4;
+        }
+        lOut.flush();
+        pMessages[0] = lMessages;
+        return lBytes.toByteArray();
+    }
+
+    // /the reading loop of Client before ProtocolReader, errors aside
+    private static void tokenizer(Player pPlayer, BufferedReader pIn, PrintStream pOut) throws Exception {
+        GameState lState = null;
+        String lString;
+        while ((lString = pIn.readLine()) != null) {
+            StringTokenizer lMessage = new StringTokenizer(lString);
+            String lMessageType = lMessage.nextToken();
+            if (lMessageType.equals("GAME")) {
+                int lWhoIAm = Integer.parseInt(lMessage.nextToken());
+                int lNumPlayers = Integer.parseInt(lMessage.nextToken());
+                lState = new GameState(lWhoIAm, lNumPlayers);
+            } else if (lMessageType.equals("SCORE")) {
+                int[] lScores = new int[lState.getNumPlayers()];
+                for (int i = 0; i < lScores.length; ++i)
+                    lScores[i] = Integer.parseInt(lMessage.nextToken());
+                lState.setScores(lScores);
+            } else if (lMessageType.equals("ROUND")) {
+                int lRound = Integer.parseInt(lMessage.nextToken());
+                int lNumBirds = Integer.parseInt(lMessage.nextToken());
+                lState.newRound(lRound, lNumBirds);
+            } else if (lMessageType.equals("MOVES")) {
+                int lNumMoves = Integer.parseInt(lMessage.nextToken());
+                int lNewObservations[] = new int[lState.getNumBirds()];
+                for (int i = 0; i < lNumMoves; ++i) {
+                    StringTokenizer lMoves = new StringTokenizer(pIn.readLine());
+                    for (int b = 0; b < lState.getNumBirds(); ++b)
+                        lNewObservations[b] = Integer.parseInt(lMoves.nextToken());
+                    lState.addMoves(lNewObservations);
+                }
+            } else if (lMessageType.equals("SHOOT")) {
+                Deadline lDue = new Deadline(Integer.parseInt(lMessage.nextToken()));
+                Action lAction = pPlayer.shoot(lState, lDue);
+                lState.resetNumNewTurns();
+                pOut.println(lAction.getBirdNumber() + " " + lAction.getMovement());
+            } else if (lMessageType.equals("GUESS")) {
+                Deadline lDue = new Deadline(Integer.parseInt(lMessage.nextToken()));
+                int lGuesses[] = pPlayer.guess(lState, lDue);
+                lState.resetNumNewTurns();
+                for (int g : lGuesses)
+                    pOut.print(g + " ");
+                pOut.println();
+            } else if (lMessageType.equals("REVEAL")) {
+                int lRevealedSpecies[] = new int[lState.getNumBirds()];
+                for (int i = 0; i < lState.getNumBirds(); ++i)
+                    lRevealedSpecies[i] = Integer.parseInt(lMessage.nextToken());
+                Deadline lDue = new Deadline(Integer.parseInt(lMessage.nextToken()));
+                pPlayer.reveal(lState, lRevealedSpecies, lDue);
+            }
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // /passes on every bird, never guesses and trains nothing in the background
+    private static class QuietPlayer extends Player {
+        private int[] mGuess = new int[0];
+
+        QuietPlayer() {
+            super(1, DEFAULT_SAFETY_MARGIN);
+        }
+
+        @Override
+        public void onMoves(GameState pState) {
+        }
+
+        @Override
+        public Action shoot(GameState pState, Deadline pDue) {
+            return cDontShoot;
+        }
+
+        @Override
+        public int[] guess(GameState pState, Deadline pDue) {
+            if (mGuess.length != pState.getNumBirds()) {
+                mGuess = new int[pState.getNumBirds()];
+                Arrays.fill(mGuess, Constants.SPECIES_UNKNOWN);
+            }
+            return mGuess;
+        }
+
+        @Override
+        public void reveal(GameState pState, int[] pSpecies, Deadline pDue) {
+        }
+    }
+}
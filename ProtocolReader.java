@@ -0,0 +1,141 @@
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the messages of the server, see GameServer, straight from the bytes
+ * of the stream.
+ *
+ * A message is a line of space separated tokens: a message type followed by
+ * small integers. Types are returned as one of the constants below and
+ * numbers are parsed in place, so reading allocates nothing after
+ * construction.
+ */
+class ProtocolReader {
+    public static final int GAME = 0;
+    public static final int ROUND = 1;
+    public static final int MOVES = 2;
+    public static final int SHOOT = 3;
+    public static final int HIT = 4;
+    public static final int GUESS = 5;
+    public static final int REVEAL = 6;
+    public static final int SCORE = 7;
+    public static final int TIMEOUT = 8;
+    public static final int GAMEOVER = 9;
+    // Indexed by the constants above, shared with ProtocolWriter
+    static final byte[][] TYPES = {
+            "GAME".getBytes(), "ROUND".getBytes(), "MOVES".getBytes(), "SHOOT".getBytes(),
+            "HIT".getBytes(), "GUESS".getBytes(), "REVEAL".getBytes(), "SCORE".getBytes(),
+            "TIMEOUT".getBytes(), "GAMEOVER".getBytes() };
+    private static final int END_OF_STREAM = -1;
+
+    private final InputStream mStream;
+    private final byte[] mBuffer = new byte[1 << 13];
+    private int mPosition;
+    private int mLimit;
+    // The message type as read, for error messages
+    private final byte[] mWord = new byte[16];
+    private int mWordLength;
+
+    public ProtocolReader(InputStream pStream) {
+        mStream = pStream;
+    }
+
+    /**
+     * Reads the type of the next message, or returns -1 at the end of the
+     * stream. Empty lines are skipped.
+     */
+    public int readMessageType() throws IOException {
+        int c;
+        while ((c = peek()) == '\n' || c == '\r' || c == ' ' || c == '\t')
+            mPosition++;
+        if (c == END_OF_STREAM)
+            return -1;
+
+        mWordLength = 0;
+        while ((c = peek()) != END_OF_STREAM && c > ' ') {
+            if (mWordLength < mWord.length)
+                mWord[mWordLength] = (byte) c;
+            mWordLength++;
+            mPosition++;
+        }
+        for (int t = 0; t < TYPES.length; t++) {
+            if (matches(TYPES[t]))
+                return t;
+        }
+        throw new IOException("Failed to parse message type '"
+                + new String(mWord, 0, Math.min(mWordLength, mWord.length)) + "'");
+    }
+
+    /**
+     * Reads the next number on the current line.
+     */
+    public int readInt() throws IOException {
+        int c = skipSpaces();
+        boolean lNegative = c == '-';
+        if (lNegative) {
+            mPosition++;
+            c = peek();
+        }
+        if (c < '0' || c > '9')
+            throw new IOException("Expected a number in " + typeName());
+
+        int lValue = 0;
+        while ((c = peek()) >= '0' && c <= '9') {
+            lValue = lValue * 10 + (c - '0');
+            mPosition++;
+        }
+        return lNegative ? -lValue : lValue;
+    }
+
+    // /true if there is another token before the end of the current line
+    public boolean hasMoreTokens() throws IOException {
+        int c = skipSpaces();
+        return c != '\n' && c != END_OF_STREAM;
+    }
+
+    /**
+     * Moves past the end of the current line, which must hold nothing but
+     * spaces from here on.
+     */
+    public void endLine() throws IOException {
+        if (hasMoreTokens())
+            throw new IOException("Trailing input for " + typeName());
+        if (peek() == '\n')
+            mPosition++;
+    }
+
+    private boolean matches(byte[] pType) {
+        if (pType.length != mWordLength)
+            return false;
+        for (int i = 0; i < mWordLength; i++) {
+            if (mWord[i] != pType[i])
+                return false;
+        }
+        return true;
+    }
+
+    private String typeName() {
+        return new String(mWord, 0, Math.min(mWordLength, mWord.length));
+    }
+
+    // /skips spaces, but not the end of the line, and returns the next byte
+    private int skipSpaces() throws IOException {
+        int c;
+        while ((c = peek()) == ' ' || c == '\t' || c == '\r')
+            mPosition++;
+        return c;
+    }
+
+    // /the next byte without consuming it, or END_OF_STREAM
+    private int peek() throws IOException {
+        if (mPosition == mLimit) {
+            mPosition = 0;
+            mLimit = mStream.read(mBuffer, 0, mBuffer.length);
+            if (mLimit <= 0) {
+                mLimit = 0;
+                return END_OF_STREAM;
+            }
+        }
+        return mBuffer[mPosition] & 0xff;
+    }
+}
@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes protocol messages, see GameServer, into a reusable byte buffer.
+ *
+ * Nothing reaches the stream until flush is called, so a sender decides
+ * where a batch of messages ends, typically right before it waits for an
+ * answer. Numbers are written digit by digit, without building strings.
+ *
+ * Like PrintStream, it never throws: a failed write is remembered and
+ * reported by checkError.
+ */
+class ProtocolWriter {
+    private final OutputStream mStream;
+    private final byte[] mBuffer = new byte[1 << 13];
+    private int mLength;
+    // True until a token has been written on the current line
+    private boolean mLineStart = true;
+    private boolean mError;
+
+    public ProtocolWriter(OutputStream pStream) {
+        mStream = pStream;
+    }
+
+    // /starts a message of the given ProtocolReader type
+    public void writeType(int pType) {
+        space();
+        byte[] lType = ProtocolReader.TYPES[pType];
+        for (byte b : lType)
+            put(b);
+    }
+
+    // /writes a number, separated from the previous token by a space
+    public void writeInt(int pValue) {
+        space();
+        if (pValue < 0) {
+            put((byte) '-');
+            if (pValue == Integer.MIN_VALUE) {
+                // Has no positive counterpart
+                put((byte) '2');
+                pValue = -147483648;
+            }
+            pValue = -pValue;
+        }
+        int lDigits = 1;
+        for (int v = pValue; v >= 10; v /= 10)
+            lDigits++;
+        if (mLength + lDigits > mBuffer.length)
+            flushBuffer();
+        for (int i = mLength + lDigits - 1; i >= mLength; i--) {
+            mBuffer[i] = (byte) ('0' + pValue % 10);
+            pValue /= 10;
+        }
+        mLength += lDigits;
+    }
+
+    public void endLine() {
+        put((byte) '\n');
+        mLineStart = true;
+    }
+
+    // /hands everything written so far to the stream in one write
+    public void flush() {
+        flushBuffer();
+        try {
+            mStream.flush();
+        } catch (IOException e) {
+            mError = true;
+        }
+    }
+
+    // /true if a write to the stream has failed
+    public boolean checkError() {
+        return mError;
+    }
+
+    private void space() {
+        if (!mLineStart)
+            put((byte) ' ');
+        mLineStart = false;
+    }
+
+    private void put(byte pByte) {
+        if (mLength == mBuffer.length)
+            flushBuffer();
+        mBuffer[mLength++] = pByte;
+    }
+
+    private void flushBuffer() {
+        if (mLength == 0)
+            return;
+        try {
+            mStream.write(mBuffer, 0, mLength);
+        } catch (IOException e) {
+            mError = true;
+        }
+        mLength = 0;
+    }
+}
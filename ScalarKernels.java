@@ -0,0 +1,61 @@
+/**
+ * Plain loops, the fallback when the Vector API is not available.
+ */
+final class ScalarKernels extends HMMKernels {
+    @Override
+    String name() {
+        return "scalar";
+    }
+
+    @Override
+    void axpy(double w, double[] x, int xOffset, double[] y, int yOffset, int n) {
+        for (int i = 0; i < n; i++) {
+            y[yOffset + i] += w * x[xOffset + i];
+        }
+    }
+
+    @Override
+    void axpyMul(double w, double[] x, int xOffset, double[] z, int zOffset,
+                 double[] y, int yOffset, int n) {
+        for (int i = 0; i < n; i++) {
+            y[yOffset + i] += w * x[xOffset + i] * z[zOffset + i];
+        }
+    }
+
+    @Override
+    double dot(double[] x, int xOffset, double[] y, int yOffset, int n) {
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += x[xOffset + i] * y[yOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    double multiply(double[] x, int xOffset, double[] y, int yOffset,
+                    double[] dst, int dstOffset, int n) {
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            double v = x[xOffset + i] * y[yOffset + i];
+            dst[dstOffset + i] = v;
+            sum += v;
+        }
+        return sum;
+    }
+
+    @Override
+    void divide(double[] v, int offset, int n, double d) {
+        for (int i = 0; i < n; i++) {
+            v[offset + i] /= d;
+        }
+    }
+
+    @Override
+    double sum(double[] v, int offset, int n) {
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += v[offset + i];
+        }
+        return sum;
+    }
+}
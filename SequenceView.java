@@ -0,0 +1,41 @@
+/**
+ * A read-only window of observations in an int array, without copying them.
+ *
+ * Observation t of the view is data[offset + t]. Views handed out by a Bird
+ * share the bird's storage and cover what it had observed when the view was
+ * taken; later moves do not show up in them.
+ */
+public final class SequenceView {
+    final int[] data;
+    final int offset;
+    final int length;
+
+    public SequenceView(int[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length)
+            throw new ArrayIndexOutOfBoundsException("[" + offset + ", " + (offset + length)
+                    + ") of " + data.length);
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    // /a view of the whole array
+    public static SequenceView of(int[] sequence) {
+        return new SequenceView(sequence, 0, sequence.length);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int get(int t) {
+        return data[offset + t];
+    }
+
+    // /copies the observations into a new array
+    public int[] toArray() {
+        int[] sequence = new int[length];
+        System.arraycopy(data, offset, sequence, 0, length);
+        return sequence;
+    }
+}
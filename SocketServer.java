@@ -0,0 +1,189 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Hosts games on a TCP or Unix domain socket, one GameServer per game.
+ *
+ * A selector loop accepts connections without blocking and keeps an eye on
+ * the clients waiting for a game, dropping those that hang up. As soon as
+ * enough clients are waiting, they are handed to a new GameServer on a
+ * thread of its own, with their channels switched to blocking mode. Every
+ * game plays the same environment.
+ *
+ * Addresses are "unix:path", "host:port" or just "port" for the loopback
+ * interface.
+ */
+class SocketServer {
+    private final Environment mEnvironment;
+    private final int mPlayersPerGame;
+    private final PrintStream mLog;
+    private final boolean mVerbose;
+    private final ExecutorService mGames = Executors.newCachedThreadPool();
+    private int mNumGames;
+
+    public SocketServer(Environment pEnvironment, int pPlayersPerGame, PrintStream pLog, boolean pVerbose) {
+        mEnvironment = pEnvironment;
+        mPlayersPerGame = pPlayersPerGame;
+        mLog = pLog;
+        mVerbose = pVerbose;
+    }
+
+    // /parses an address given to the listen or connect option
+    public static SocketAddress parseAddress(String pAddress) throws IOException {
+        if (pAddress.startsWith("unix:"))
+            return UnixDomainSocketAddress.of(pAddress.substring("unix:".length()));
+        int lColon = pAddress.lastIndexOf(':');
+        try {
+            if (lColon < 0)
+                return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(pAddress));
+            return new InetSocketAddress(pAddress.substring(0, lColon),
+                    Integer.parseInt(pAddress.substring(lColon + 1)));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid address '" + pAddress + "'");
+        }
+    }
+
+    /**
+     * Listens on the address and starts games until the thread is
+     * interrupted. A Unix domain socket file left behind by an earlier
+     * server is replaced.
+     */
+    public void serve(SocketAddress pAddress) throws IOException {
+        ServerSocketChannel lServer;
+        if (pAddress instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) pAddress).getPath());
+            lServer = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            lServer = ServerSocketChannel.open();
+        }
+
+        Selector lSelector = Selector.open();
+        List<SocketChannel> lWaiting = new ArrayList<SocketChannel>();
+        ByteBuffer lScratch = ByteBuffer.allocate(64);
+        try {
+            lServer.bind(pAddress);
+            lServer.configureBlocking(false);
+            lServer.register(lSelector, SelectionKey.OP_ACCEPT);
+            if (mVerbose)
+                mLog.println("Listening on " + pAddress);
+
+            while (!Thread.currentThread().isInterrupted()) {
+                lSelector.select();
+                Iterator<SelectionKey> lKeys = lSelector.selectedKeys().iterator();
+                while (lKeys.hasNext()) {
+                    SelectionKey lKey = lKeys.next();
+                    lKeys.remove();
+                    if (!lKey.isValid())
+                        continue;
+                    if (lKey.isAcceptable()) {
+                        SocketChannel lClient = lServer.accept();
+                        if (lClient == null)
+                            continue;
+                        lClient.configureBlocking(false);
+                        lClient.register(lSelector, SelectionKey.OP_READ);
+                        lWaiting.add(lClient);
+                    } else if (lKey.isReadable()) {
+                        // Clients say nothing before the game starts, so this is a
+                        // hang up or a broken client
+                        SocketChannel lClient = (SocketChannel) lKey.channel();
+                        lScratch.clear();
+                        if (read(lClient, lScratch) != 0) {
+                            lKey.cancel();
+                            lWaiting.remove(lClient);
+                            close(lClient);
+                        }
+                    }
+                }
+
+                while (lWaiting.size() >= mPlayersPerGame) {
+                    List<SocketChannel> lPlayers = new ArrayList<SocketChannel>(lWaiting.subList(0, mPlayersPerGame));
+                    lWaiting.subList(0, mPlayersPerGame).clear();
+                    for (SocketChannel lClient : lPlayers)
+                        lClient.keyFor(lSelector).cancel();
+                    // Deregisters the cancelled keys, so the channels can block again
+                    lSelector.selectNow();
+                    startGame(lPlayers);
+                }
+            }
+        } finally {
+            for (SocketChannel lClient : lWaiting)
+                close(lClient);
+            lSelector.close();
+            lServer.close();
+            mGames.shutdown();
+            if (pAddress instanceof UnixDomainSocketAddress)
+                Files.deleteIfExists(((UnixDomainSocketAddress) pAddress).getPath());
+        }
+    }
+
+    // /connects to a server started with serve, as a client
+    public static SocketChannel connect(SocketAddress pAddress) throws IOException {
+        return SocketChannel.open(pAddress);
+    }
+
+    private void startGame(final List<SocketChannel> pPlayers) throws IOException {
+        final int lGame = mNumGames++;
+        final GameServer lServer = new GameServer(mLog, mVerbose);
+        lServer.load(mEnvironment);
+        for (SocketChannel lClient : pPlayers) {
+            lClient.configureBlocking(true);
+            lServer.addPlayer(new BufferedReader(new InputStreamReader(Channels.newInputStream(lClient))),
+                    Channels.newOutputStream(lClient));
+        }
+
+        mGames.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mVerbose)
+                        mLog.println("Starting game " + lGame);
+                    lServer.run();
+                } finally {
+                    for (SocketChannel lClient : pPlayers)
+                        close(lClient);
+                    if (mVerbose) {
+                        StringBuilder lScores = new StringBuilder();
+                        for (int i = 0; i < pPlayers.size(); i++)
+                            lScores.append(' ').append(lServer.getScore(i));
+                        mLog.println("Game " + lGame + " over, scores:" + lScores);
+                    }
+                }
+            }
+        });
+    }
+
+    private static int read(SocketChannel pClient, ByteBuffer pBuffer) {
+        try {
+            return pClient.read(pBuffer);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static void close(SocketChannel pClient) {
+        try {
+            pClient.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.Arrays;
+
+/**
+ * The species models of a player, learned from every bird whose species has
+ * been revealed.
+ *
+ * Every revealed bird adds its expected counts under the current model of its
+ * species to the counts pooled for the species, and re-estimation refits the
+ * models from the pooled counts. The birds themselves are not kept, so a
+ * model gets better as more birds are revealed while its size, and the cost
+ * of scoring a bird against it, stays the same.
+ *
+ * Re-estimation is meant to run in the background. The models are published
+ * as a whole, with a version that changes every time, so readers take the
+ * latest set without locking and never see a model being refitted.
+ */
+class SpeciesLibrary {
+    private final int states;
+    private final int emissions;
+    // The models being pooled into, and what they were learned from
+    private final FlatHMM[] models;
+    private final ExpectedCounts[] counts;
+    // Species with counts that have not been re-estimated from yet
+    private final boolean[] changed;
+    private final HMMWorkspace workspace;
+
+    // Never modified once published
+    private volatile FlatHMM[] published;
+    private volatile int version;
+
+    public SpeciesLibrary(int species, int states, int emissions) {
+        this.states = states;
+        this.emissions = emissions;
+        models = new FlatHMM[species];
+        counts = new ExpectedCounts[species];
+        changed = new boolean[species];
+        workspace = new HMMWorkspace(states, emissions, HMMWorkspace.MAX_TURNS);
+        published = new FlatHMM[species];
+    }
+
+    /**
+     * Starts a species from a model learned earlier, with the counts it was
+     * learned from, e.g. from a SpeciesStore. Published right away.
+     */
+    public synchronized void put(int species, FlatHMM model, ExpectedCounts modelCounts) {
+        if (model.getNumStates() != states || model.getNumEmissions() != emissions)
+            throw new IllegalArgumentException("Model of species " + species + " has the wrong shape");
+        models[species] = model;
+        counts[species] = modelCounts != null ? modelCounts : new ExpectedCounts(states, emissions);
+        publish();
+    }
+
+    /**
+     * Adds a bird of the given species. The first bird of a species also
+     * gives it its first model: seed, trained on the bird for iterations
+     * Baum-Welch iterations first. seed is only used then, and is kept.
+     */
+    public synchronized void add(int species, SequenceView sequence, FlatHMM seed, int iterations) {
+        if (sequence.length() == 0)
+            return;
+        if (models[species] == null) {
+            if (iterations > 0)
+                seed.baumWelch(iterations, sequence, workspace);
+            models[species] = seed;
+            counts[species] = new ExpectedCounts(states, emissions);
+        }
+        models[species].accumulate(sequence, workspace, counts[species]);
+        changed[species] = true;
+    }
+
+    /**
+     * Refits the species with new birds to their pooled counts and publishes
+     * the new models.
+     */
+    public synchronized void reestimate() {
+        boolean changedAny = false;
+        for (int s = 0; s < models.length; s++) {
+            if (!changed[s])
+                continue;
+            models[s] = new FlatHMM(counts[s]);
+            changed[s] = false;
+            changedAny = true;
+        }
+        if (changedAny)
+            publish();
+    }
+
+    // /the latest models, null for unknown species, not to be modified
+    public FlatHMM[] getModels() {
+        return published;
+    }
+
+    // /changes every time new models are published
+    public int getVersion() {
+        return version;
+    }
+
+    // /copies of the pooled counts, null for unknown species
+    public synchronized ExpectedCounts[] getCounts() {
+        ExpectedCounts[] copies = new ExpectedCounts[counts.length];
+        for (int s = 0; s < counts.length; s++) {
+            if (counts[s] == null)
+                continue;
+            copies[s] = new ExpectedCounts(states, emissions);
+            copies[s].add(counts[s]);
+        }
+        return copies;
+    }
+
+    private void publish() {
+        // The models are replaced rather than refitted, so sharing them is safe
+        published = Arrays.copyOf(models, models.length);
+        version++;
+    }
+}
@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A snapshot of the species models a player has learned, kept between games.
+ *
+ * The snapshot is read with FileChannel.map and a species is only decoded
+ * when asked for. All numbers are big endian:
+ *
+ * int magic ("DHSP"), int version, int species
+ * for every species:
+ *   int states, int emissions, zero for both if the species is unknown
+ *   int sequences the counts were gathered from
+ *   double A, states * states, row-major
+ *   double B transposed, emissions * states, emission-major
+ *   double pi, states
+ *   double expected initial, transition and emission counts, laid out
+ *   like pi, A and B (see ExpectedCounts)
+ *
+ * Snapshots are written to a temporary file that then replaces the old one,
+ * so a player mapping the old snapshot, or a game that ends at the same
+ * time, never sees a half written file. The last game to end wins.
+ *
+ * Anything in a snapshot that does not add up, e.g. because the file is
+ * corrupt or truncated, is reported as an IOException when it is mapped.
+ */
+class SpeciesStore {
+    static final int MAGIC = 0x44485350;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int SPECIES_HEADER_SIZE = 12;
+    // Larger models than this are taken for a corrupt snapshot
+    private static final int MAX_STATES = 256;
+    private static final int MAX_EMISSIONS = 256;
+
+    private final ByteBuffer data;
+    // Where every species starts, or -1 if it is unknown
+    private final int[] offsets;
+
+    private SpeciesStore(ByteBuffer data) throws IOException {
+        this.data = data;
+        if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC)
+            throw new IOException("Not a species snapshot");
+        if (data.getInt(4) != VERSION)
+            throw new IOException("Unsupported species snapshot version " + data.getInt(4));
+
+        int species = data.getInt(8);
+        // Every species takes at least its header
+        if (species < 0 || species > (data.limit() - HEADER_SIZE) / SPECIES_HEADER_SIZE)
+            throw new IOException("Invalid number of species " + species);
+        offsets = new int[species];
+        long offset = HEADER_SIZE;
+        for (int s = 0; s < offsets.length; ++s) {
+            if (offset + SPECIES_HEADER_SIZE > data.limit())
+                throw new IOException("Species snapshot truncated in species " + s);
+            int states = data.getInt((int) offset);
+            int emissions = data.getInt((int) offset + 4);
+            if (states == 0 && emissions == 0) {
+                offsets[s] = -1;
+                offset += SPECIES_HEADER_SIZE;
+                continue;
+            }
+            if (states < 1 || states > MAX_STATES || emissions < 1 || emissions > MAX_EMISSIONS
+                    || data.getInt((int) offset + 8) < 0)
+                throw new IOException("Invalid model of species " + s);
+            offsets[s] = (int) offset;
+            offset += SPECIES_HEADER_SIZE + 8L * 2 * size(states, emissions);
+            if (offset > data.limit())
+                throw new IOException("Species snapshot truncated in species " + s);
+        }
+    }
+
+    // /maps a snapshot, nothing is decoded yet
+    public static SpeciesStore map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new SpeciesStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes the models and their counts, counts[s] may be null when
+     * nothing is known about the data behind models[s].
+     */
+    public static void write(Path path, FlatHMM[] models, ExpectedCounts[] counts) throws IOException {
+        int bytes = HEADER_SIZE;
+        for (FlatHMM model : models) {
+            bytes += SPECIES_HEADER_SIZE;
+            if (model != null)
+                bytes += 8 * 2 * size(model.getNumStates(), model.getNumEmissions());
+        }
+
+        ByteBuffer data = ByteBuffer.allocate(bytes);
+        data.putInt(MAGIC);
+        data.putInt(VERSION);
+        data.putInt(models.length);
+        for (int s = 0; s < models.length; ++s) {
+            FlatHMM model = models[s];
+            if (model == null) {
+                data.putInt(0).putInt(0).putInt(0);
+                continue;
+            }
+            int states = model.getNumStates();
+            int emissions = model.getNumEmissions();
+            ExpectedCounts speciesCounts = counts[s];
+            if (speciesCounts != null && (speciesCounts.states != states || speciesCounts.emissions != emissions))
+                throw new IllegalArgumentException("Counts of species " + s + " do not fit its model");
+            if (speciesCounts == null)
+                speciesCounts = new ExpectedCounts(states, emissions);
+
+            data.putInt(states).putInt(emissions).putInt(speciesCounts.sequences);
+            put(data, model.transitions());
+            put(data, model.emissionsByObservation());
+            put(data, model.initialProbs());
+            put(data, speciesCounts.initialCounts);
+            put(data, speciesCounts.transitionCounts);
+            put(data, speciesCounts.emissionCounts);
+        }
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            data.flip();
+            while (data.hasRemaining())
+                channel.write(data);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int getNumSpecies() {
+        return offsets.length;
+    }
+
+    // /the model of a species, or null if it is unknown
+    public FlatHMM getModel(int species) {
+        int offset = offsets[species];
+        if (offset < 0)
+            return null;
+        int states = data.getInt(offset);
+        int emissions = data.getInt(offset + 4);
+        offset += SPECIES_HEADER_SIZE;
+        double[] a = get(offset, states * states);
+        offset += 8 * a.length;
+        double[] bT = get(offset, emissions * states);
+        offset += 8 * bT.length;
+        return new FlatHMM(states, emissions, a, bT, get(offset, states));
+    }
+
+    // /the counts behind the model of a species, or null if it is unknown
+    public ExpectedCounts getCounts(int species) {
+        int offset = offsets[species];
+        if (offset < 0)
+            return null;
+        int states = data.getInt(offset);
+        int emissions = data.getInt(offset + 4);
+        ExpectedCounts counts = new ExpectedCounts(states, emissions);
+        counts.sequences = data.getInt(offset + 8);
+        offset += SPECIES_HEADER_SIZE + 8 * size(states, emissions);
+        offset = get(offset, counts.initialCounts);
+        offset = get(offset, counts.transitionCounts);
+        get(offset, counts.emissionCounts);
+        return counts;
+    }
+
+    // /number of doubles in pi, A and B, the counts take as many again
+    private static int size(int states, int emissions) {
+        return states + states * states + emissions * states;
+    }
+
+    private static void put(ByteBuffer data, double[] values) {
+        for (double v : values)
+            data.putDouble(v);
+    }
+
+    private double[] get(int offset, int length) {
+        double[] values = new double[length];
+        get(offset, values);
+        return values;
+    }
+
+    // /fills values from offset on and returns the offset after them
+    private int get(int offset, double[] values) {
+        for (int i = 0; i < values.length; ++i)
+            values[i] = data.getDouble(offset + 8 * i);
+        return offset + 8 * values.length;
+    }
+}
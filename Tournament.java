@@ -0,0 +1,131 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays every environment a number of times, many games at once, and
+ * prints the scores and timing per environment.
+ *
+ * Every game is a LocalGame with a player of its own, so games share
+ * nothing but the thread pool and the read only environments. Game g of every environment is played with
+ * seed + g, which makes results comparable between players and runs.
+ */
+class Tournament {
+    private final List<String> mEnvironments;
+    private final int mGames;
+    private final long mSeed;
+    private final int mWorkers;
+    private final int mThreads;
+    private final long mSafetyMargin;
+
+    /**
+     * pWorkers games are played at the same time, each with a player of
+     * pThreads training threads and a safety margin of pSafetyMargin ms.
+     */
+    public Tournament(List<String> pEnvironments, int pGames, long pSeed,
+                      int pWorkers, int pThreads, long pSafetyMargin) {
+        mEnvironments = pEnvironments;
+        mGames = pGames;
+        mSeed = pSeed;
+        mWorkers = pWorkers;
+        mThreads = pThreads;
+        mSafetyMargin = pSafetyMargin;
+    }
+
+    // /the outcome of one game
+    private static class Result {
+        int mScore;
+        long mNanos;
+        Exception mError;
+        LatencyHistogram mShootLatency = new LatencyHistogram("SHOOT");
+        LatencyHistogram mGuessLatency = new LatencyHistogram("GUESS");
+    }
+
+    public void run(PrintStream pOut) throws Exception {
+        ExecutorService lExecutor = Executors.newFixedThreadPool(mWorkers);
+        List<List<Future<Result>>> lResults = new ArrayList<List<Future<Result>>>();
+        long lStart = System.nanoTime();
+        try {
+            for (String lFilename : mEnvironments) {
+                // Loaded once, all games of the environment share it
+                Environment lEnvironment = Environment.load(lFilename);
+                List<Future<Result>> lGames = new ArrayList<Future<Result>>();
+                for (int g = 0; g < mGames; g++)
+                    lGames.add(lExecutor.submit(game(lEnvironment, mSeed + g)));
+                lResults.add(lGames);
+            }
+
+            pOut.println(String.format("%-30s %5s %8s %5s %5s %7s %9s %9s %9s %6s",
+                    "environment", "games", "mean", "min", "max", "s/game",
+                    "shoot p50", "shoot p99", "guess p99", "errors"));
+            int lPlayed = 0;
+            for (int e = 0; e < mEnvironments.size(); e++) {
+                LatencyHistogram lShoots = new LatencyHistogram("SHOOT");
+                LatencyHistogram lGuesses = new LatencyHistogram("GUESS");
+                long lTotal = 0;
+                long lNanos = 0;
+                int lMin = Integer.MAX_VALUE;
+                int lMax = Integer.MIN_VALUE;
+                int lCompleted = 0;
+                int lErrors = 0;
+                for (Future<Result> lGame : lResults.get(e)) {
+                    Result lResult = lGame.get();
+                    lPlayed++;
+                    if (lResult.mError != null) {
+                        pOut.println(mEnvironments.get(e) + ": " + lResult.mError);
+                        lErrors++;
+                        continue;
+                    }
+                    lCompleted++;
+                    lTotal += lResult.mScore;
+                    lMin = Math.min(lMin, lResult.mScore);
+                    lMax = Math.max(lMax, lResult.mScore);
+                    lNanos += lResult.mNanos;
+                    lShoots.add(lResult.mShootLatency);
+                    lGuesses.add(lResult.mGuessLatency);
+                }
+                if (lCompleted == 0) {
+                    pOut.println(String.format("%-30s %5d %8s %5s %5s %7s %9s %9s %9s %6d",
+                            mEnvironments.get(e), 0, "-", "-", "-", "-", "-", "-", "-", lErrors));
+                    continue;
+                }
+                pOut.println(String.format("%-30s %5d %8.2f %5d %5d %7.2f %9.2f %9.2f %9.2f %6d",
+                        mEnvironments.get(e), lCompleted, (double) lTotal / lCompleted, lMin, lMax,
+                        lNanos / 1e9 / lCompleted, lShoots.percentile(0.5) / 1e6,
+                        lShoots.percentile(0.99) / 1e6, lGuesses.percentile(0.99) / 1e6, lErrors));
+            }
+
+            double lSeconds = (System.nanoTime() - lStart) / 1e9;
+            pOut.println(String.format("%d games in %.2f s on %d workers, %.2f games/s",
+                    lPlayed, lSeconds, mWorkers, lPlayed / lSeconds));
+        } finally {
+            lExecutor.shutdown();
+        }
+    }
+
+    private Callable<Result> game(final Environment pEnvironment, final long pSeed) {
+        return new Callable<Result>() {
+            @Override
+            public Result call() {
+                Result lResult = new Result();
+                LocalGame lGame = new LocalGame(mThreads, mSafetyMargin, new Random(pSeed),
+                        new PrintStream(OutputStream.nullOutputStream()),
+                        lResult.mShootLatency, lResult.mGuessLatency);
+                long lStart = System.nanoTime();
+                try {
+                    lResult.mScore = lGame.play(pEnvironment);
+                } catch (Exception e) {
+                    lResult.mError = e;
+                }
+                lResult.mNanos = System.nanoTime() - lStart;
+                return lResult;
+            }
+        };
+    }
+}
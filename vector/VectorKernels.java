@@ -0,0 +1,113 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * HMMKernels on the JDK Vector API. Lives in its own directory because it
+ * only compiles with --add-modules jdk.incubator.vector:
+ *
+ *   javac -d out *.java
+ *   javac --add-modules jdk.incubator.vector -cp out -d out vector/*.java
+ *   java --add-modules jdk.incubator.vector -cp out Main
+ *
+ * HMMKernels picks it up by name when it is on the class path.
+ */
+final class VectorKernels extends HMMKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    String name() {
+        return "vector(" + SPECIES.length() + ")";
+    }
+
+    @Override
+    void axpy(double w, double[] x, int xOffset, double[] y, int yOffset, int n) {
+        int i = 0;
+        DoubleVector vw = DoubleVector.broadcast(SPECIES, w);
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            vx.fma(vw, vy).intoArray(y, yOffset + i);
+        }
+        for (; i < n; i++) {
+            y[yOffset + i] += w * x[xOffset + i];
+        }
+    }
+
+    @Override
+    void axpyMul(double w, double[] x, int xOffset, double[] z, int zOffset,
+                 double[] y, int yOffset, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector vz = DoubleVector.fromArray(SPECIES, z, zOffset + i);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            vx.mul(w).fma(vz, vy).intoArray(y, yOffset + i);
+        }
+        for (; i < n; i++) {
+            y[yOffset + i] += w * x[xOffset + i] * z[zOffset + i];
+        }
+    }
+
+    @Override
+    double dot(double[] x, int xOffset, double[] y, int yOffset, int n) {
+        int i = 0;
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            acc = vx.fma(vy, acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            sum += x[xOffset + i] * y[yOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    double multiply(double[] x, int xOffset, double[] y, int yOffset,
+                    double[] dst, int dstOffset, int n) {
+        int i = 0;
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            DoubleVector v = vx.mul(vy);
+            v.intoArray(dst, dstOffset + i);
+            acc = acc.add(v);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            double v = x[xOffset + i] * y[yOffset + i];
+            dst[dstOffset + i] = v;
+            sum += v;
+        }
+        return sum;
+    }
+
+    @Override
+    void divide(double[] v, int offset, int n, double d) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, v, offset + i).div(d).intoArray(v, offset + i);
+        }
+        for (; i < n; i++) {
+            v[offset + i] /= d;
+        }
+    }
+
+    @Override
+    double sum(double[] v, int offset, int n) {
+        int i = 0;
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            acc = acc.add(DoubleVector.fromArray(SPECIES, v, offset + i));
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            sum += v[offset + i];
+        }
+        return sum;
+    }
+}